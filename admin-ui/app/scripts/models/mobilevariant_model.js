@@ -47,8 +47,8 @@ App.MobileVariant = Ember.Object.extend( Ember.Validations, {
         }
     },
     totalInstances: function() {
-        return this.get( "installations" ).length;
-    }.property(),
+        return this.get( "installations.total" );
+    }.property( "installations.total" ),
     vType: function() {
         if( this.get( "type" ) === "ANDROID" ) {
             return "android";
@@ -162,12 +162,33 @@ App.MobileVariant.reopenClass({
     },
     _createVariantInstanceObject: function( response ) {
 
-        var variantInstance = Ember.ArrayProxy.create( { content: [] } );
+        // The variant doesn't contain its installations, the first page of them (and their total number) is read separately
+        var variantInstance = Ember.ArrayProxy.create( { content: [], total: 0 } ),
+            installationPipe = AeroGear.Pipeline({
+                name: "installations",
+                settings: {
+                    baseURL: App.baseURL + "rest/applications/",
+                    authenticator: App.AeroGear.authenticator,
+                    endpoint:  response.variantID + "/installations"
+                }
+            }).pipes.installations;
+
+        installationPipe.read({
+            query: {
+                page: 0,
+                per_page: 25
+            }
+        })
+        .then( function( installations, textStatus, jqXHR ) {
+            Ember.run( this, function() {
+                installations.forEach( function( value ) {
+                    value.pushApplicationID = response.pushApplicationID;
+                    value.variantID = response.variantID;
+                    variantInstance.pushObject( App.MobileVariantInstance.create( value ) );
+                });
 
-        response.installations.forEach( function( value ) {
-            value.pushApplicationID = response.pushApplicationID;
-            value.variantID = response.variantID;
-            variantInstance.pushObject( App.MobileVariantInstance.create( value ) );
+                variantInstance.set( "total", parseInt( jqXHR.getResponseHeader( "total" ), 10 ) || installations.length );
+            });
         });
 
         response.installations = variantInstance;
@@ -0,0 +1,200 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.benchmarks;
+
+import org.jboss.aerogear.unifiedpush.jpa.dao.impl.JPAInstallationDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token selection of the {@link JPAInstallationDao} dynamic finders, against an embedded H2 database with
+ * the given number of installations (spread over ten variants), using the shipped index script.
+ *
+ * The default sizes fit into the 4 GB heap of the fork. 10^7 rows are opt-in, and need a bigger heap:
+ * <code>-p installations=10000000 -jvmArgsAppend -Xmx8g</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class InstallationQueryBenchmark {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:unifiedPushBenchmark;DB_CLOSE_DELAY=-1";
+    private static final int VARIANTS = 10;
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String[] CATEGORIES = { "sports", "news", "weather", "music", "movies", "games", "books", "travel" };
+    private static final String[] DEVICE_TYPES = { "Phone", "Tablet" };
+
+    @Param({ "100000", "1000000" })
+    public int installations;
+
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    private Connection connection;
+    private JPAInstallationDao installationDao;
+    private String variantID;
+
+    @Setup(Level.Trial)
+    public void createInstallations() throws SQLException, IOException {
+        // creates the schema
+        entityManagerFactory = Persistence.createEntityManagerFactory("UnifiedPushBenchmark");
+        entityManager = entityManagerFactory.createEntityManager();
+
+        // keeps the in-memory database open, and is faster than JPA for the bulk insert:
+        connection = DriverManager.getConnection(JDBC_URL, "sa", "");
+        connection.setAutoCommit(false);
+
+        final String[] variantIDs = new String[VARIANTS];
+        for (int i = 0; i < VARIANTS; i++) {
+            variantIDs[i] = UUID.randomUUID().toString();
+        }
+        variantID = variantIDs[0];
+
+        final PreparedStatement installation = connection.prepareStatement(
+                "insert into Installation (id, variantID, deviceToken, deviceType, alias, enabled) values (?, ?, ?, ?, ?, ?)");
+        final PreparedStatement category = connection.prepareStatement(
+                "insert into Installation_categories (Installation_id, categories) values (?, ?)");
+
+        for (int i = 0; i < installations; i++) {
+            final String id = UUID.randomUUID().toString();
+            installation.setString(1, id);
+            installation.setString(2, variantIDs[i % VARIANTS]);
+            installation.setString(3, UUID.randomUUID().toString().replace("-", ""));
+            installation.setString(4, DEVICE_TYPES[i % DEVICE_TYPES.length]);
+            installation.setString(5, "user" + (i / 2) + "@example.com");
+            installation.setBoolean(6, i % 20 != 0);
+            installation.addBatch();
+
+            category.setString(1, id);
+            category.setString(2, CATEGORIES[i % CATEGORIES.length]);
+            category.addBatch();
+
+            if (i % 10000 == 9999) {
+                installation.executeBatch();
+                category.executeBatch();
+                connection.commit();
+            }
+        }
+        installation.executeBatch();
+        category.executeBatch();
+        connection.commit();
+
+        installation.close();
+        category.close();
+
+        executeScript("sql/h2/installation-indexes.sql");
+
+        installationDao = new JPAInstallationDao();
+        installationDao.setEntityManager(entityManager);
+    }
+
+    @TearDown(Level.Trial)
+    public void dropInstallations() throws SQLException {
+        entityManager.close();
+        entityManagerFactory.close();
+
+        final Statement statement = connection.createStatement();
+        statement.execute("drop all objects");
+        statement.close();
+        connection.close();
+    }
+
+    @Benchmark
+    public List<String> firstTokenBatch() {
+        return installationDao.findDeviceTokenBatchForVariantIDByCriteria(variantID, null, null, null, null, BATCH_SIZE);
+    }
+
+    @Benchmark
+    public List<String> tokenBatchAfterLastToken() {
+        // somewhere in the middle of the keyset:
+        return installationDao.findDeviceTokenBatchForVariantIDByCriteria(variantID, null, null, null, "8", BATCH_SIZE);
+    }
+
+    @Benchmark
+    public List<String> tokenBatchForCategories() {
+        return installationDao.findDeviceTokenBatchForVariantIDByCriteria(variantID, Arrays.asList("news", "music", "books"), null, null, null, BATCH_SIZE);
+    }
+
+    @Benchmark
+    public List<String> tokensForAliasAndDeviceType() {
+        return installationDao.findAllDeviceTokenForVariantIDByCriteria(variantID, null, Arrays.asList("user10@example.com", "user20@example.com"),
+                Arrays.asList("Phone"));
+    }
+
+    private void executeScript(String resource) throws IOException, SQLException {
+        final InputStream in = getClass().getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new IllegalStateException("Could not find " + resource);
+        }
+
+        final StringBuilder script = new StringBuilder();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().startsWith("--")) {
+                    script.append(line).append('\n');
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        final Statement statement = connection.createStatement();
+        try {
+            for (String sql : script.toString().split(";")) {
+                if (sql.trim().length() > 0) {
+                    statement.execute(sql);
+                }
+            }
+            connection.commit();
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.benchmarks;
+
+import com.google.android.gcm.server.Message;
+import com.notnoop.apns.APNS;
+import com.notnoop.apns.PayloadBuilder;
+import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload handling of a send request: parsing the submitted JSON map into a {@link UnifiedPushMessage},
+ * and building the APNs and GCM payloads from it, the same way the senders do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+    private UnifiedPushMessage message;
+
+    @Setup
+    public void createMessage() {
+        message = new UnifiedPushMessage(createRequestMap());
+    }
+
+    @Benchmark
+    public UnifiedPushMessage messageFromRequestMap() {
+        // the constructor consumes the map, so every invocation needs a fresh one
+        return new UnifiedPushMessage(createRequestMap());
+    }
+
+    @Benchmark
+    public String apnsPayload() {
+        PayloadBuilder builder = APNS.newPayload()
+                .alertBody(message.getAlert())
+                .badge(message.getBadge())
+                .sound(message.getSound());
+
+        if (message.isContentAvailable()) {
+            builder = builder.forNewsstand();
+        }
+
+        return builder.customFields(message.getData()).build();
+    }
+
+    @Benchmark
+    public Message gcmMessage() {
+        Message.Builder gcmBuilder = new Message.Builder();
+
+        gcmBuilder.addData("alert", message.getAlert());
+        gcmBuilder.addData("sound", message.getSound());
+        gcmBuilder.addData("badge", "" + message.getBadge());
+
+        int ttl = message.getTimeToLive();
+        if (ttl != -1) {
+            gcmBuilder.timeToLive(ttl);
+        }
+
+        for (Map.Entry<String, Object> entry : message.getData().entrySet()) {
+            gcmBuilder.addData(entry.getKey(), "" + entry.getValue());
+        }
+
+        return gcmBuilder.build();
+    }
+
+    /**
+     * The map, as it is parsed by the JAX-RS sender endpoint
+     */
+    static Map<String, Object> createRequestMap() {
+        final Map<String, Object> data = new HashMap<String, Object>();
+
+        final List<String> aliases = new ArrayList<String>();
+        aliases.add("someUsername");
+        data.put("alias", aliases);
+
+        final List<String> categories = new ArrayList<String>();
+        categories.add("sports");
+        categories.add("news");
+        data.put("categories", categories);
+
+        data.put("ttl", 3600);
+
+        final Map<String, Object> payload = new HashMap<String, Object>();
+        payload.put("alert", "HELLO!");
+        payload.put("sound", "default");
+        payload.put("badge", 2);
+        payload.put("content-available", true);
+        payload.put("key", "value");
+        payload.put("key2", "other value");
+        data.put("message", payload);
+
+        data.put("simple-push", "version=123");
+
+        return data;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.benchmarks;
+
+import org.jboss.aerogear.unifiedpush.api.AndroidVariant;
+import org.jboss.aerogear.unifiedpush.api.PushApplication;
+import org.jboss.aerogear.unifiedpush.api.PushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.SimplePushVariant;
+import org.jboss.aerogear.unifiedpush.api.VariantDeliveryResult;
+import org.jboss.aerogear.unifiedpush.api.iOSVariant;
+import org.jboss.aerogear.unifiedpush.message.SenderServiceImpl;
+import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
+import org.jboss.aerogear.unifiedpush.message.dispatch.PushNetworkDispatcher;
+import org.jboss.aerogear.unifiedpush.message.dispatch.RateLimiters;
+import org.jboss.aerogear.unifiedpush.message.jobs.PushJobRecorder;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+import org.jboss.aerogear.unifiedpush.message.sender.APNsPushNotificationSender;
+import org.jboss.aerogear.unifiedpush.message.sender.GCMPushNotificationSender;
+import org.jboss.aerogear.unifiedpush.message.sender.SimplePushNotificationSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The complete fan-out of a send request by the {@link SenderServiceImpl}: variant selection, dispatching
+ * to the push network queues and walking the token batches. The network senders and the token queries
+ * are stubbed, so this measures the pipeline itself, from the request until the last token is handed
+ * over to a (stubbed) network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SenderFanOutBenchmark {
+
+    @Param({ "1", "10" })
+    public int variantsPerNetwork;
+
+    @Param({ "10000", "100000" })
+    public int tokensPerVariant;
+
+    // number of tokens that have reached a (stubbed) network
+    private final AtomicLong delivered = new AtomicLong();
+
+    private SenderServiceImpl senderService;
+    private PushNetworkDispatcher dispatcher;
+    private PushApplication pushApplication;
+
+    @Setup(Level.Trial)
+    public void createSenderService() throws Exception {
+        pushApplication = new PushApplication();
+        for (int i = 0; i < variantsPerNetwork; i++) {
+            pushApplication.getIOSVariants().add(new iOSVariant());
+            pushApplication.getAndroidVariants().add(new AndroidVariant());
+            pushApplication.getSimplePushVariants().add(new SimplePushVariant());
+        }
+
+        dispatcher = new PushNetworkDispatcher();
+        dispatcher.startQueues();
+
+        senderService = new SenderServiceImpl();
+        inject(senderService, "dispatcher", dispatcher);
+        inject(senderService, "metrics", new PushMetrics());
+        inject(senderService, "rateLimiters", new RateLimiters());
+        inject(senderService, "jobRecorder", new PushJobRecorder() {
+            @Override
+            public void jobSubmitted(PushMessageInformation job) {
+            }
+
+            @Override
+            public void variantCompleted(VariantDeliveryResult result) {
+            }
+        });
+        inject(senderService, "clientInstallationService", new StubInstallationService(tokensPerVariant));
+        inject(senderService, "apnsSender", new APNsPushNotificationSender() {
+            @Override
+            public int sendPushMessage(iOSVariant iOSVariant, Collection<String> tokens, UnifiedPushMessage pushMessage) {
+                delivered.addAndGet(tokens.size());
+                return tokens.size();
+            }
+        });
+        inject(senderService, "gcmSender", new GCMPushNotificationSender() {
+            @Override
+            public int sendPushMessage(AndroidVariant androidVariant, List<String> registrationIDs, UnifiedPushMessage pushMessage) {
+                delivered.addAndGet(registrationIDs.size());
+                return registrationIDs.size();
+            }
+        });
+        inject(senderService, "simplePushSender", new SimplePushNotificationSender() {
+            @Override
+            public int sendMessage(List<String> pushEndpointURLs, String payload) {
+                delivered.addAndGet(pushEndpointURLs.size());
+                return pushEndpointURLs.size();
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void stopDispatcher() {
+        dispatcher.stopQueues();
+    }
+
+    @Benchmark
+    public long send() {
+        final long expected = delivered.get() + 3L * variantsPerNetwork * tokensPerVariant;
+
+        senderService.send(pushApplication, new UnifiedPushMessage(PayloadBenchmark.createRequestMap()), UUID.randomUUID().toString());
+
+        // the delivery is asynchronous, wait until all tokens have been handed over:
+        while (delivered.get() < expected) {
+            LockSupport.parkNanos(10000);
+        }
+        return delivered.get();
+    }
+
+    private static void inject(Object target, String fieldName, Object value) throws Exception {
+        final Field field = target.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.benchmarks;
+
+import org.jboss.aerogear.unifiedpush.api.Installation;
+import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.dao.PageResult;
+import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory stand-in for the token queries of the sender: every variant has the same, sorted, tokens.
+ * All other operations are not supported.
+ */
+class StubInstallationService implements ClientInstallationService {
+
+    private final List<String> tokens;
+
+    StubInstallationService(int tokensPerVariant) {
+        final List<String> sortedTokens = new ArrayList<String>(tokensPerVariant);
+        for (int i = 0; i < tokensPerVariant; i++) {
+            sortedTokens.add(String.format("%064d", i));
+        }
+        this.tokens = Collections.unmodifiableList(sortedTokens);
+    }
+
+    @Override
+    public List<String> findDeviceTokenBatchForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                   String lastDeviceToken, int batchSize) {
+        return nextBatch(lastDeviceToken, batchSize);
+    }
+
+    @Override
+    public List<String> findSimplePushEndpointURLBatchForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                             String lastPushEndpointURL, int batchSize) {
+        return nextBatch(lastPushEndpointURL, batchSize);
+    }
+
+    @Override
+    public List<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes) {
+        return tokens;
+    }
+
+    @Override
+    public List<String> findAllSimplePushEndpointURLsForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes) {
+        return tokens;
+    }
+
+    private List<String> nextBatch(String lastToken, int batchSize) {
+        final int from = (lastToken == null) ? 0 : Collections.binarySearch(tokens, lastToken) + 1;
+        return new ArrayList<String>(tokens.subList(from, Math.min(from + batchSize, tokens.size())));
+    }
+
+    @Override
+    public void addInstallation(VariantType type, Installation installation) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addInstallations(Variant variant, List<Installation> installations) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void updateInstallation(Installation installation) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void updateInstallation(Installation toUpdate, Installation postedInstallation) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Installation findById(String primaryKey) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PageResult<Installation> findInstallationsForVariantByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                           int page, int pageSize) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeInstallation(Installation installation) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeInstallations(List<Installation> installations) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeInstallationsForVariantByDeviceTokens(String variantID, Set<String> deviceTokens) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int removeInstallationBatchForVariantByDeviceTokens(String variantID, Set<String> deviceTokens) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void reconcileDeviceTokensForVariant(String variantID, Map<String, String> canonicalTokens, Set<String> unregisteredTokens) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Installation findInstallationForVariantByDeviceToken(String variantID, String deviceToken) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.rest.metrics;
+
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.jboss.aerogear.security.authz.Secure;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+
+/**
+ * Exposes the counters and histograms of the send pipeline, to see where the delivery time goes.
+ */
+@Stateless
+@Path("/metrics")
+@Secure("admin")
+public class MetricsEndpoint {
+
+    @Inject
+    private PushMetrics pushMetrics;
+
+    /**
+     * @return messages accepted, tokens resolved per variant and, per push network, the send latency,
+     * batch sizes, failures by error code and the number of pruned invalid tokens
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response metrics() {
+        return Response.ok(pushMetrics.snapshot()).build();
+    }
+}
@@ -19,6 +19,7 @@ package org.jboss.aerogear.unifiedpush.rest.registry.applications;
 import org.jboss.aerogear.security.auth.LoggedUser;
 import org.jboss.aerogear.unifiedpush.api.Installation;
 import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.dao.PageResult;
 import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
 import org.jboss.aerogear.unifiedpush.service.GenericVariantService;
 import org.jboss.aerogear.security.authz.Secure;
@@ -29,13 +30,16 @@ import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.List;
 
 @Stateless
 @TransactionAttribute
@@ -43,6 +47,9 @@ import javax.ws.rs.core.Response;
 @Secure( { "developer", "admin" })
 public class InstallationManagementEndpoint {
 
+    // upper bound for the 'per_page' query parameter
+    private static final int MAX_PAGE_SIZE = 500;
+
     @Inject
     private GenericVariantService genericVariantService;
 
@@ -53,9 +60,19 @@ public class InstallationManagementEndpoint {
     @LoggedUser
     private Instance<String> loginName;
 
+    /**
+     * Returns one page of the installations of the variant (the first page is <code>0</code>), optionally
+     * filtered by deviceType, alias and category. The total number of matching installations is
+     * returned in the <code>total</code> header.
+     */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response findInstallations(@PathParam("variantID") String variantId) {
+    public Response findInstallations(@PathParam("variantID") String variantId,
+                                      @QueryParam("page") @DefaultValue("0") int page,
+                                      @QueryParam("per_page") @DefaultValue("25") int pageSize,
+                                      @QueryParam("deviceType") List<String> deviceTypes,
+                                      @QueryParam("alias") List<String> aliases,
+                                      @QueryParam("category") List<String> categories) {
 
         //Find the variant using the variantID
         Variant variant = genericVariantService.findByVariantIDForDeveloper(variantId, loginName.get());
@@ -64,7 +81,16 @@ public class InstallationManagementEndpoint {
             return Response.status(Response.Status.NOT_FOUND).entity("Could not find requested Variant").build();
         }
 
-        return Response.ok(variant.getInstallations()).build();
+        if (page < 0 || pageSize < 1) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid page or per_page parameter").build();
+        }
+
+        PageResult<Installation> pageResult = clientInstallationService.findInstallationsForVariantByCriteria(variant.getVariantID(),
+                categories, aliases, deviceTypes, page, Math.min(pageSize, MAX_PAGE_SIZE));
+
+        return Response.ok(pageResult.getResultList())
+                .header("total", pageResult.getCount())
+                .build();
     }
 
     @GET
@@ -39,6 +39,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import java.util.List;
 import java.util.logging.Logger;
 
 @Stateless
@@ -98,10 +99,10 @@ public class InstallationRegistrationEndpoint {
         // new device/client ? 
         if (installation == null) {
             logger.fine("Performing client registration for: " + entity.getDeviceToken());
+            // add installation to the matching variant (overrides a posted variantID)
+            genericVariantService.addInstallation(variant, entity);
             // store the installation:
             clientInstallationService.addInstallation(variant.getType(), entity);
-            // add installation to the matching variant
-            genericVariantService.addInstallation(variant, entity);
         } else {
             // We only update the metadata, if the device is enabled: 
             if (installation.isEnabled()) {
@@ -114,6 +115,47 @@ public class InstallationRegistrationEndpoint {
         return appendAllowOriginHeader(Response.ok(entity), request);
     }
 
+    /**
+     * Bulk registration, e.g. for migrations or server-side registration proxies: accepts a JSON array of
+     * installations for the authenticated variant. Already registered devices are updated, all others are created.
+     */
+    @POST
+    @Path("batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response registerInstallations(
+            List<Installation> entities,
+            @Context HttpServletRequest request) {
+
+        // find the matching variation:
+        final Variant variant = loadVariantWhenAuthorized(request);
+        if (variant == null) {
+            return appendAllowOriginHeader(
+                    Response.status(Status.UNAUTHORIZED)
+                            .header("WWW-Authenticate", "Basic realm=\"AeroGear UnifiedPush Server\"")
+                            .entity("Unauthorized Request"),
+                    request);
+        }
+
+        if (entities == null) {
+            return appendAllowOriginHeader(Response.status(Status.BAD_REQUEST), request);
+        }
+
+        for (Installation entity : entities) {
+            // same poor validation as for a single registration, applied to the whole batch:
+            if (entity.getDeviceToken() == null || (variant.getType() == VariantType.SIMPLE_PUSH && entity.getSimplePushEndpoint() == null)) {
+                return appendAllowOriginHeader(Response.status(Status.BAD_REQUEST), request);
+            }
+
+            // Needed for the Admin UI Only. Help for setting up Routes
+            entity.setPlatform(variant.getType().getTypeName());
+        }
+
+        logger.fine("Performing bulk registration of " + entities.size() + " clients");
+        clientInstallationService.addInstallations(variant, entities);
+
+        return appendAllowOriginHeader(Response.ok(), request);
+    }
+
     @DELETE
     @Path("{token}")
     public Response unregisterInstallations(
@@ -16,7 +16,11 @@
  */
 package org.jboss.aerogear.unifiedpush.rest.sender;
 
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.ejb.Stateless;
@@ -24,30 +28,46 @@ import javax.ejb.TransactionAttribute;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriBuilder;
 
 import org.jboss.aerogear.unifiedpush.api.PushApplication;
+import org.jboss.aerogear.unifiedpush.api.PushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.VariantDeliveryResult;
 import org.jboss.aerogear.unifiedpush.message.SenderService;
 import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
 import org.jboss.aerogear.unifiedpush.rest.util.HttpBasicHelper;
 import org.jboss.aerogear.unifiedpush.service.PushApplicationService;
+import org.jboss.aerogear.unifiedpush.service.PushJobService;
 
 @Stateless
 @Path("/sender")
 @TransactionAttribute
 public class PushNotificationSenderEndpoint {
 
+    // seconds after which a job, that still misses some of its variant results, is reported as 'unknown'
+    private static final long JOB_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("aerogear.unifiedpush.jobs.timeout", 86400));
+
     private final Logger logger = Logger.getLogger(PushNotificationSenderEndpoint.class.getName());
     @Inject
     private PushApplicationService pushApplicationService;
     @Inject
     private SenderService senderService;
+    @Inject
+    private PushJobService pushJobService;
 
+    /**
+     * Submits the message. The response body is still the plain "Job submitted" of the previous versions,
+     * the URL of the job's status is returned in the <code>Location</code> header.
+     */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     public Response send(final Map<String, Object> message, @Context HttpServletRequest request) {
@@ -64,13 +84,73 @@ public class PushNotificationSenderEndpoint {
         final UnifiedPushMessage payload = new UnifiedPushMessage(message);
 
         // submitted to @Async EJB:
-        senderService.send(pushApplication, payload);
-        logger.info("Message submitted to PushNetworks for further processing");
+        final String jobID = UUID.randomUUID().toString();
+        senderService.send(pushApplication, payload, jobID);
+        logger.info(String.format("Message submitted to PushNetworks for further processing, as job %s", jobID));
 
         return Response.status(Status.OK)
+                .location(UriBuilder.fromResource(PushNotificationSenderEndpoint.class).path("jobs").path(jobID).build())
                 .entity("Job submitted").build();
     }
 
+    /**
+     * Reports the status of a push job: the job is <code>completed</code> once all of its variants have been
+     * delivered. The records are written in the background, so a just submitted job might not be found yet.
+     * A job that is still not complete after the job timeout is <code>unknown</code>: some of its results have
+     * been lost, or its delivery has stalled.
+     */
+    @GET
+    @Path("jobs/{jobID}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response jobStatus(@PathParam("jobID") String jobID, @Context HttpServletRequest request) {
+
+        final PushApplication pushApplication = loadPushApplicationWhenAuthorized(request);
+        if (pushApplication == null) {
+            return Response.status(Status.UNAUTHORIZED)
+                    .header("WWW-Authenticate", "Basic realm=\"AeroGear UnifiedPush Server\"")
+                    .entity("Unauthorized Request")
+                    .build();
+        }
+
+        final PushMessageInformation job = pushJobService.findJob(jobID);
+        if (job == null || !job.getPushApplicationID().equals(pushApplication.getPushApplicationID())) {
+            return Response.status(Status.NOT_FOUND).entity("Could not find requested job").build();
+        }
+
+        final List<VariantDeliveryResult> results = pushJobService.findVariantDeliveryResults(jobID);
+        long receivers = 0;
+        long successes = 0;
+        long failures = 0;
+        for (VariantDeliveryResult result : results) {
+            receivers += result.getReceivers();
+            successes += result.getSuccesses();
+            failures += result.getFailures();
+        }
+
+        final Map<String, Object> status = new LinkedHashMap<String, Object>();
+        status.put("jobID", jobID);
+        status.put("status", statusOf(job, results.size()));
+        status.put("submitDate", job.getSubmitDate());
+        status.put("variants", job.getVariantCount());
+        status.put("completedVariants", results.size());
+        status.put("receivers", receivers);
+        status.put("successes", successes);
+        status.put("failures", failures);
+        status.put("variantResults", results);
+
+        return Response.ok(status).build();
+    }
+
+    private static String statusOf(PushMessageInformation job, int completedVariants) {
+        if (completedVariants >= job.getVariantCount()) {
+            return "completed";
+        }
+        if (job.getSubmitDate().getTime() + JOB_TIMEOUT_MILLIS < System.currentTimeMillis()) {
+            return "unknown";
+        }
+        return "in progress";
+    }
+
     /**
      * returns application if the masterSecret is valid for the request PushApplicationEntity
      */
@@ -0,0 +1,296 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.mock;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Mock of the APNs binary provider protocol: a TLS gateway reading simple, enhanced and framed
+ * notifications, and a TLS feedback service reporting the tokens which were rejected by the gateway.
+ *
+ * <p>
+ * Invalid tokens are answered with error response status <code>8</code> and injected errors with
+ * status <code>1</code>, after which the connection is closed, just like Apple does. Dropped connections are
+ * closed without any response. The {@link SSLContext}
+ * is supplied by the caller; the client has to trust its certificate, e.g. via <code>javax.net.ssl.trustStore</code>.
+ */
+public class MockAPNsServer {
+
+    private static final int STATUS_PROCESSING_ERROR = 1;
+    private static final int STATUS_INVALID_TOKEN = 8;
+
+    private final Logger logger = Logger.getLogger(MockAPNsServer.class.getName());
+
+    private final SSLContext sslContext;
+    private final NetworkBehavior behavior = new NetworkBehavior();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final Queue<String> inactiveTokens = new ConcurrentLinkedQueue<String>();
+
+    private ServerSocket gateway;
+    private ServerSocket feedback;
+
+    public MockAPNsServer(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Starts the gateway and the feedback service on free local ports.
+     */
+    public void start() throws IOException {
+        gateway = listen();
+        feedback = listen();
+        accept(gateway, true);
+        accept(feedback, false);
+    }
+
+    public void stop() {
+        closeQuietly(gateway);
+        closeQuietly(feedback);
+    }
+
+    public int getGatewayPort() {
+        return gateway.getLocalPort();
+    }
+
+    public int getFeedbackPort() {
+        return feedback.getLocalPort();
+    }
+
+    /**
+     * Value to be configured as <code>aerogear.unifiedpush.apns.gateway</code>.
+     */
+    public String getGatewayDestination() {
+        return "localhost:" + getGatewayPort();
+    }
+
+    /**
+     * Value to be configured as <code>aerogear.unifiedpush.apns.feedback</code>.
+     */
+    public String getFeedbackDestination() {
+        return "localhost:" + getFeedbackPort();
+    }
+
+    public NetworkBehavior getBehavior() {
+        return behavior;
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private ServerSocket listen() throws IOException {
+        final SSLServerSocket socket = (SSLServerSocket) sslContext.getServerSocketFactory()
+                .createServerSocket(0, 50, InetAddress.getByName("localhost"));
+        socket.setNeedClientAuth(false);
+        return socket;
+    }
+
+    private void accept(final ServerSocket serverSocket, final boolean isGateway) {
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        final Thread handler = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (isGateway) {
+                                    handleGateway(socket);
+                                } else {
+                                    handleFeedback(socket);
+                                }
+                            }
+                        }, "mock-apns-connection");
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (SocketException e) {
+                        // server socket got closed
+                        return;
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Error while accepting APNs connection", e);
+                    }
+                }
+            }
+        }, isGateway ? "mock-apns-gateway" : "mock-apns-feedback");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void handleGateway(Socket socket) {
+        try {
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            while (true) {
+                if (behavior.isConnectionDropped(received.get())) {
+                    // the gateway went away, without any error response:
+                    return;
+                }
+
+                final int command;
+                try {
+                    command = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return;
+                }
+
+                int identifier = 0;
+                final byte[] token;
+                if (command == 0) {
+                    token = readItem(in);
+                    readItem(in);
+                } else if (command == 1) {
+                    identifier = in.readInt();
+                    in.readInt(); // expiry
+                    token = readItem(in);
+                    readItem(in);
+                } else if (command == 2) {
+                    final Frame frame = readFrame(in);
+                    identifier = frame.identifier;
+                    token = frame.token;
+                } else {
+                    logger.warning("Unknown APNs command: " + command);
+                    return;
+                }
+
+                behavior.delay();
+                final String hexToken = toHex(token);
+                if (behavior.nextIsError()) {
+                    reject(socket, STATUS_PROCESSING_ERROR, identifier);
+                    return;
+                }
+                if (behavior.isInvalid(hexToken)) {
+                    rejected.incrementAndGet();
+                    inactiveTokens.add(hexToken);
+                    reject(socket, STATUS_INVALID_TOKEN, identifier);
+                    return;
+                }
+                received.incrementAndGet();
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "APNs connection closed", e);
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private void handleFeedback(Socket socket) {
+        try {
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            final int now = (int) (System.currentTimeMillis() / 1000);
+            String token;
+            while ((token = inactiveTokens.poll()) != null) {
+                final byte[] bytes = fromHex(token);
+                out.writeInt(now);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "APNs feedback connection closed", e);
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void reject(Socket socket, int status, int identifier) throws IOException {
+        final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeByte(8);
+        out.writeByte(status);
+        out.writeInt(identifier);
+        out.flush();
+    }
+
+    private static byte[] readItem(DataInputStream in) throws IOException {
+        final byte[] item = new byte[in.readUnsignedShort()];
+        in.readFully(item);
+        return item;
+    }
+
+    private static Frame readFrame(DataInputStream in) throws IOException {
+        final Frame frame = new Frame();
+        int remaining = in.readInt();
+        while (remaining > 0) {
+            final int itemId = in.readUnsignedByte();
+            final byte[] item = readItem(in);
+            remaining -= 3 + item.length;
+            if (itemId == 1) {
+                frame.token = item;
+            } else if (itemId == 3 && item.length == 4) {
+                frame.identifier = ((item[0] & 0xff) << 24) | ((item[1] & 0xff) << 16) | ((item[2] & 0xff) << 8) | (item[3] & 0xff);
+            }
+        }
+        return frame;
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static void closeQuietly(ServerSocket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static final class Frame {
+        private int identifier;
+        private byte[] token = new byte[0];
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.mock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Mock of the GCM for Chrome messages endpoint and of the Google OAuth 2.0 token endpoint.
+ * Malformed messages and messages for invalid channel IDs are answered with a {@code 400}, injected errors with a {@code 500}.
+ * Token requests with a refresh token that starts with {@link NetworkBehavior#INVALID_TOKEN_PREFIX} fail with a {@code 400}.
+ */
+public class MockChromeServer extends MockHttpServer {
+
+    public static final String MESSAGE_PATH = "/gcm_for_chrome/v1/messages";
+    public static final String ACCESS_TOKEN_PATH = "/o/oauth2/token";
+    public static final String ACCESS_TOKEN = "mock-access-token";
+
+    private final AtomicLong tokenRequests = new AtomicLong();
+
+    /**
+     * URL to be configured as {@code aerogear.unifiedpush.chrome.messageUrl}.
+     */
+    public String getMessageURL() {
+        return getBaseURL() + MESSAGE_PATH;
+    }
+
+    /**
+     * URL to be configured as {@code aerogear.unifiedpush.chrome.accessTokenUrl}.
+     */
+    public String getAccessTokenURL() {
+        return getBaseURL() + ACCESS_TOKEN_PATH;
+    }
+
+    /**
+     * Number of access tokens handed out by the OAuth endpoint.
+     */
+    public long getTokenRequests() {
+        return tokenRequests.get();
+    }
+
+    @Override
+    protected void registerHandlers(HttpServer server) {
+        server.createContext(ACCESS_TOKEN_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final String body = readBody(exchange);
+                getBehavior().delay();
+                tokenRequests.incrementAndGet();
+                if (body.contains("refresh_token=" + NetworkBehavior.INVALID_TOKEN_PREFIX)) {
+                    respond(exchange, 400, "application/json", "{\"error\":\"invalid_grant\"}");
+                    return;
+                }
+                respond(exchange, 200, "application/json",
+                        "{\"access_token\":\"" + ACCESS_TOKEN + "\",\"token_type\":\"Bearer\",\"expires_in\":3600}");
+            }
+        });
+        server.createContext(MESSAGE_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                message(exchange);
+            }
+        });
+    }
+
+    private void message(HttpExchange exchange) throws IOException {
+        final String body = readBody(exchange);
+        final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (!("Bearer " + ACCESS_TOKEN).equals(authorization)) {
+            respond(exchange, 401, "text/plain", "Unauthorized");
+            return;
+        }
+
+        getBehavior().delay();
+        if (getBehavior().nextIsError()) {
+            respond(exchange, 500, "text/plain", "Internal Server Error");
+            return;
+        }
+
+        final Object channelID = channelID(body);
+        if (channelID == null || getBehavior().isInvalid(channelID.toString())) {
+            countRejected(1);
+            respond(exchange, 400, "application/json", "{\"error\":{\"code\":400,\"message\":\"Invalid channelId\"}}");
+        } else {
+            countReceived(1);
+            respond(exchange, 204, null, null);
+        }
+    }
+
+    private static Object channelID(String body) {
+        try {
+            final Object message = new JSONParser().parse(body);
+            return message instanceof JSONObject ? ((JSONObject) message).get("channelId") : null;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.mock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mock of the GCM HTTP connection server, answering multicast JSON requests on {@link #SEND_PATH}.
+ * Invalid tokens are reported with an {@code InvalidRegistration} result, unregistered ones with a {@code NotRegistered}
+ * result, replaced ones with their canonical {@code registration_id}, unavailable tokens with an
+ * {@code Unavailable} result (and a {@code Retry-After} header), injected errors are answered with a {@code 503}
+ * and a {@code Retry-After} header. The sizes of the multicast requests, and the highest number of requests that have
+ * been served at the same time, are recorded.
+ */
+public class MockGCMServer extends MockHttpServer {
+
+    public static final String SEND_PATH = "/gcm/send";
+
+    private final AtomicLong messageIds = new AtomicLong();
+    private final Queue<Integer> multicastSizes = new ConcurrentLinkedQueue<Integer>();
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+    /**
+     * URL to be configured as {@code aerogear.unifiedpush.gcm.endpoint}.
+     */
+    public String getSendURL() {
+        return getBaseURL() + SEND_PATH;
+    }
+
+    /**
+     * Number of registration IDs of each multicast request, in the order of their arrival.
+     */
+    public List<Integer> getMulticastSizes() {
+        return new ArrayList<Integer>(multicastSizes);
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests.get();
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        multicastSizes.clear();
+        maxConcurrentRequests.set(0);
+    }
+
+    @Override
+    protected void registerHandlers(HttpServer server) {
+        server.createContext(SEND_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void send(HttpExchange exchange) throws IOException {
+        final String body = readBody(exchange);
+        final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("key=")) {
+            respond(exchange, 401, "text/plain", "Unauthorized");
+            return;
+        }
+
+        final Object request = JSONValue.parse(body);
+        if (!(request instanceof JSONObject) || !(((JSONObject) request).get("registration_ids") instanceof JSONArray)) {
+            respond(exchange, 400, "text/plain", "Invalid request");
+            return;
+        }
+        final JSONArray registrationIds = (JSONArray) ((JSONObject) request).get("registration_ids");
+        multicastSizes.add(registrationIds.size());
+
+        final int concurrent = concurrentRequests.incrementAndGet();
+        int max;
+        while ((max = maxConcurrentRequests.get()) < concurrent && !maxConcurrentRequests.compareAndSet(max, concurrent)) {
+            // another request updated it in the meantime, compare again
+        }
+        try {
+            getBehavior().delay();
+        } finally {
+            concurrentRequests.decrementAndGet();
+        }
+        if (getBehavior().nextIsError()) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 503, "text/plain", "Service Unavailable");
+            return;
+        }
+
+        final JSONArray results = new JSONArray();
+        int success = 0;
+        int failure = 0;
+        int canonical = 0;
+        boolean unavailable = false;
+        for (Object registrationId : registrationIds) {
+            final JSONObject result = new JSONObject();
+            if (getBehavior().isInvalid((String) registrationId)) {
+                result.put("error", "InvalidRegistration");
+                failure++;
+            } else if (getBehavior().isUnregistered((String) registrationId)) {
+                result.put("error", "NotRegistered");
+                failure++;
+            } else if (getBehavior().isUnavailable((String) registrationId)) {
+                result.put("error", "Unavailable");
+                unavailable = true;
+                failure++;
+            } else {
+                result.put("message_id", "0:" + messageIds.incrementAndGet());
+                final String canonicalToken = getBehavior().getCanonicalToken((String) registrationId);
+                if (canonicalToken != null) {
+                    result.put("registration_id", canonicalToken);
+                    canonical++;
+                }
+                success++;
+            }
+            results.add(result);
+        }
+        countReceived(success);
+        countRejected(failure);
+        if (unavailable) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+        }
+
+        final JSONObject response = new JSONObject();
+        response.put("multicast_id", messageIds.incrementAndGet());
+        response.put("success", success);
+        response.put("failure", failure);
+        response.put("canonical_ids", canonical);
+        response.put("results", results);
+        respond(exchange, 200, "application/json", response.toJSONString());
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.mock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for the HTTP based mock push networks, running on the JDK's built-in HTTP server.
+ */
+public abstract class MockHttpServer {
+
+    private final NetworkBehavior behavior = new NetworkBehavior();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Starts the server on a free local port.
+     */
+    public void start() throws IOException {
+        start(0);
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        registerHandlers(server);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getBaseURL() {
+        return "http://localhost:" + getPort();
+    }
+
+    public NetworkBehavior getBehavior() {
+        return behavior;
+    }
+
+    /**
+     * Number of messages (per token) accepted by the server.
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * Number of messages (per token) answered with an invalid token response.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public void reset() {
+        received.set(0);
+        rejected.set(0);
+    }
+
+    protected void countReceived(int count) {
+        received.addAndGet(count);
+    }
+
+    protected void countRejected(int count) {
+        rejected.addAndGet(count);
+    }
+
+    protected abstract void registerHandlers(HttpServer server);
+
+    protected static String readBody(HttpExchange exchange) throws IOException {
+        final InputStream in = exchange.getRequestBody();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    protected static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            final byte[] bytes = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, bytes.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+        exchange.close();
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.mock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+
+/**
+ * Mock of a SimplePush server, accepting {@code PUT version=N} requests on any path below
+ * {@link #ENDPOINT_PATH}. The last path segment is treated as the channel token: invalid tokens
+ * are answered with a {@code 404}, injected errors with a {@code 500}.
+ */
+public class MockSimplePushServer extends MockHttpServer {
+
+    public static final String ENDPOINT_PATH = "/update/";
+
+    /**
+     * Push endpoint URL to be stored on a SimplePush installation for the given channel token.
+     */
+    public String getEndpointURL(String token) {
+        return getBaseURL() + ENDPOINT_PATH + token;
+    }
+
+    @Override
+    protected void registerHandlers(HttpServer server) {
+        server.createContext(ENDPOINT_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                update(exchange);
+            }
+        });
+    }
+
+    private void update(HttpExchange exchange) throws IOException {
+        final String body = readBody(exchange);
+        if (!"PUT".equals(exchange.getRequestMethod()) || !body.startsWith("version=")) {
+            respond(exchange, 400, "text/plain", "Invalid request");
+            return;
+        }
+
+        getBehavior().delay();
+        if (getBehavior().nextIsError()) {
+            respond(exchange, 500, "text/plain", "Internal Server Error");
+            return;
+        }
+
+        final String path = exchange.getRequestURI().getPath();
+        final String token = path.substring(path.lastIndexOf('/') + 1);
+        if (getBehavior().isInvalid(token)) {
+            countRejected(1);
+            respond(exchange, 404, "text/plain", "Not Found");
+        } else {
+            countReceived(1);
+            respond(exchange, 200, "application/json", "{}");
+        }
+    }
+}
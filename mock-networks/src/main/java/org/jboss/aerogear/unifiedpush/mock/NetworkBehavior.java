@@ -0,0 +1,179 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.mock;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tunable behaviour shared by the mock push networks: response latency,
+ * the rate of injected server errors and the rate of tokens reported as invalid.
+ * Tokens starting with {@link #INVALID_TOKEN_PREFIX}, or explicitly registered via {@link #withInvalidTokens(String...)}
+ * (e.g. hex encoded APNs tokens), are always reported as invalid. Tokens registered via
+ * {@link #withUnavailableTokens(String...)} are reported as temporarily unavailable, once. Networks which know about
+ * re-registered devices (GCM) report {@link #withUnregisteredTokens(String...) unregistered} tokens and
+ * {@link #withCanonicalToken(String, String) canonical} replacements. Networks keeping connections open (APNs) can
+ * {@link #withConnectionDropAfter(long) drop} them in the middle of a batch.
+ */
+public class NetworkBehavior {
+
+    public static final String INVALID_TOKEN_PREFIX = "invalid";
+
+    private final Random random = new Random();
+    private final Set<String> invalidTokens = new CopyOnWriteArraySet<String>();
+    private final Set<String> unavailableTokens = new CopyOnWriteArraySet<String>();
+    private final Set<String> unregisteredTokens = new CopyOnWriteArraySet<String>();
+    private final Map<String, String> canonicalTokens = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger pendingFailures = new AtomicInteger();
+    private volatile long connectionDropAfter = -1;
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile double invalidTokenRate;
+
+    public NetworkBehavior withLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    public NetworkBehavior withErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public NetworkBehavior withInvalidTokenRate(double invalidTokenRate) {
+        this.invalidTokenRate = invalidTokenRate;
+        return this;
+    }
+
+    public NetworkBehavior withInvalidTokens(String... tokens) {
+        invalidTokens.addAll(Arrays.asList(tokens));
+        return this;
+    }
+
+    public NetworkBehavior withUnavailableTokens(String... tokens) {
+        unavailableTokens.addAll(Arrays.asList(tokens));
+        return this;
+    }
+
+    public NetworkBehavior withUnregisteredTokens(String... tokens) {
+        unregisteredTokens.addAll(Arrays.asList(tokens));
+        return this;
+    }
+
+    public NetworkBehavior withCanonicalToken(String token, String canonicalToken) {
+        canonicalTokens.put(token, canonicalToken);
+        return this;
+    }
+
+    /**
+     * Lets the next <code>count</code> requests fail with a server error, regardless of the error rate.
+     */
+    public NetworkBehavior withFailures(int count) {
+        pendingFailures.set(count);
+        return this;
+    }
+
+    /**
+     * Closes all connections, without any response, once the given number of messages has been received in total.
+     */
+    public NetworkBehavior withConnectionDropAfter(long received) {
+        this.connectionDropAfter = received;
+        return this;
+    }
+
+    public long getLatency() {
+        return latencyMillis;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public double getInvalidTokenRate() {
+        return invalidTokenRate;
+    }
+
+    /**
+     * Blocks the calling thread for the configured latency.
+     */
+    public void delay() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Decides whether the current request should fail with a server error.
+     */
+    public boolean nextIsError() {
+        int failures;
+        while ((failures = pendingFailures.get()) > 0) {
+            if (pendingFailures.compareAndSet(failures, failures - 1)) {
+                return true;
+            }
+        }
+        return errorRate > 0 && random.nextDouble() < errorRate;
+    }
+
+    /**
+     * Decides whether the given token should be reported as invalid.
+     */
+    public boolean isInvalid(String token) {
+        if (token == null || token.startsWith(INVALID_TOKEN_PREFIX) || invalidTokens.contains(token)) {
+            return true;
+        }
+        return invalidTokenRate > 0 && random.nextDouble() < invalidTokenRate;
+    }
+
+    /**
+     * Decides whether the given token should be reported as temporarily unavailable. Each registered token is
+     * unavailable only once, so that it is accepted when it is retried.
+     */
+    public boolean isUnavailable(String token) {
+        return unavailableTokens.remove(token);
+    }
+
+    /**
+     * Decides whether the given token should be reported as no longer registered (e.g. the app has been uninstalled).
+     */
+    public boolean isUnregistered(String token) {
+        return unregisteredTokens.contains(token);
+    }
+
+    /**
+     * Returns the token which replaces the given one, or <code>null</code> if it is the current one.
+     */
+    public String getCanonicalToken(String token) {
+        return canonicalTokens.get(token);
+    }
+
+    /**
+     * Decides whether the connection should be dropped, after the given number of messages has been received in total.
+     */
+    public boolean isConnectionDropped(long received) {
+        return connectionDropAfter >= 0 && received >= connectionDropAfter;
+    }
+}
@@ -39,6 +39,7 @@ public class Installation extends BaseModel {
     private String platform;
     private String simplePushEndpoint;
     private VariantType variantType;
+    private String variantID;
 
     public boolean isEnabled() {
         return this.enabled;
@@ -182,4 +183,18 @@ public class Installation extends BaseModel {
     public void setVariantType(VariantType variantType) {
         this.variantType = variantType;
     }
+
+    public String getVariantID() {
+        return variantID;
+    }
+
+    /**
+     * The <code>variantID</code> of the {@link Variant} this Installation is registered with.
+     * Set by the server on registration, a posted value is ignored.
+     *
+     * @param variantID the identifier of the owning variant
+     */
+    public void setVariantID(String variantID) {
+        this.variantID = variantID;
+    }
 }
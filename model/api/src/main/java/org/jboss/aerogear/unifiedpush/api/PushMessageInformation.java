@@ -0,0 +1,62 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.api;
+
+import java.util.Date;
+
+/**
+ * Record of one submitted push message (a "push job"), identified by its <code>id</code>. The record is written
+ * once and never updated: the outcome for each targeted variant is stored as a {@link VariantDeliveryResult}.
+ */
+public class PushMessageInformation extends BaseModel {
+    private static final long serialVersionUID = -3811562384528637372L;
+
+    private String pushApplicationID;
+    private Date submitDate = new Date();
+    private int variantCount;
+
+    public String getPushApplicationID() {
+        return pushApplicationID;
+    }
+
+    /**
+     * The PushApplication the message has been submitted for.
+     */
+    public void setPushApplicationID(String pushApplicationID) {
+        this.pushApplicationID = pushApplicationID;
+    }
+
+    public Date getSubmitDate() {
+        return submitDate;
+    }
+
+    public void setSubmitDate(Date submitDate) {
+        this.submitDate = submitDate;
+    }
+
+    public int getVariantCount() {
+        return variantCount;
+    }
+
+    /**
+     * Number of variants the message is delivered to, the job is complete once each of them
+     * has reported its {@link VariantDeliveryResult}.
+     */
+    public void setVariantCount(int variantCount) {
+        this.variantCount = variantCount;
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.jboss.aerogear.unifiedpush.api;
 
+import org.codehaus.jackson.annotate.JsonIgnore;
+
 import javax.validation.constraints.Size;
 import java.util.HashSet;
 import java.util.Set;
@@ -68,6 +70,11 @@ public abstract class Variant extends BaseModel {
         this.description = description;
     }
 
+    /**
+     * The (lazily loaded) installations are not part of the JSON representation of the variant,
+     * they are read page by page from the installation endpoint.
+     */
+    @JsonIgnore
     public Set<Installation> getInstallations() {
         return this.installations;
     }
@@ -0,0 +1,114 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.api;
+
+import java.util.Date;
+
+/**
+ * Append-only outcome of delivering a push job (see {@link PushMessageInformation}) to the installations of one variant.
+ */
+public class VariantDeliveryResult extends BaseModel {
+    private static final long serialVersionUID = 2350372372871227446L;
+
+    private String jobID;
+    private String variantID;
+    private VariantType variantType;
+    private long receivers;
+    private long successes;
+    private long failures;
+    private long durationMillis;
+    private Date completedDate = new Date();
+
+    public String getJobID() {
+        return jobID;
+    }
+
+    /**
+     * The <code>id</code> of the {@link PushMessageInformation} this result belongs to.
+     */
+    public void setJobID(String jobID) {
+        this.jobID = jobID;
+    }
+
+    public String getVariantID() {
+        return variantID;
+    }
+
+    public void setVariantID(String variantID) {
+        this.variantID = variantID;
+    }
+
+    public VariantType getVariantType() {
+        return variantType;
+    }
+
+    public void setVariantType(VariantType variantType) {
+        this.variantType = variantType;
+    }
+
+    public long getReceivers() {
+        return receivers;
+    }
+
+    /**
+     * Number of tokens (or SimplePush endpoints) that have been targeted.
+     */
+    public void setReceivers(long receivers) {
+        this.receivers = receivers;
+    }
+
+    public long getSuccesses() {
+        return successes;
+    }
+
+    /**
+     * Number of tokens accepted by the push network.
+     */
+    public void setSuccesses(long successes) {
+        this.successes = successes;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Number of tokens rejected by the push network, or not submitted due to an error.
+     */
+    public void setFailures(long failures) {
+        this.failures = failures;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Time taken from loading the first batch of tokens until the last batch has been handed over to the push network.
+     */
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    public Date getCompletedDate() {
+        return completedDate;
+    }
+
+    public void setCompletedDate(Date completedDate) {
+        this.completedDate = completedDate;
+    }
+}
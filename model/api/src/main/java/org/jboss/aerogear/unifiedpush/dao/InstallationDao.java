@@ -19,6 +19,7 @@ package org.jboss.aerogear.unifiedpush.dao;
 import org.jboss.aerogear.unifiedpush.api.Installation;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface InstallationDao extends GenericBaseDao<Installation, String> {
@@ -30,6 +31,38 @@ public interface InstallationDao extends GenericBaseDao<Installation, String> {
      */
     List<Installation> findInstallationsForVariantByDeviceTokens(String variantID, Set<String> deviceTokens);
 
+    /**
+     * Bulk API: deletes all installations (and their categories) of the given Variant, that match the <code>Set</code>
+     * of deviceTokens, without loading them. Callers should keep the number of tokens small enough for the IN-list
+     * limits of the database.
+     *
+     * @return the number of deleted installations
+     */
+    int deleteInstallationsForVariantByDeviceTokens(String variantID, Set<String> deviceTokens);
+
+    /**
+     * Bulk API: replaces the deviceTokens of the installations of the given Variant, without loading them. The keys
+     * of the <code>Map</code> are the current deviceTokens, the values their replacements. All updates run with one
+     * prepared query, in the transaction of the caller, which has to make sure that no replacement is registered already.
+     *
+     * @return the number of updated installations
+     */
+    int updateDeviceTokensForVariant(String variantID, Map<String, String> replacementTokens);
+
+    /**
+     * Bulk API: writes all pending changes to the database and detaches the loaded installations afterwards,
+     * so that a large import does not pile up in the persistence context.
+     */
+    void flushAndClear();
+
+    /**
+     * Management API: Loads one page of the installations for the given Variant, by respecting a few (optional) criteria
+     * arguments (categories, aliases and deviceTypes). The installations are ordered by their primary key, the first page is <code>0</code>.
+     * The result also carries the total number of matching installations.
+     */
+    PageResult<Installation> findInstallationsForVariantByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                    int page, int pageSize);
+
     /**
      * Sender API for native (Android/iOS) installations:
      *
@@ -44,4 +77,23 @@ public interface InstallationDao extends GenericBaseDao<Installation, String> {
      */
     List<String> findAllPushEndpointURLsForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes);
 
+    /**
+     * Sender API for native (Android/iOS) installations, streaming variant:
+     *
+     * Query the next batch of (distinct) tokens for the given variant, ordered by their value. Only tokens that are greater than the
+     * given <code>lastDeviceToken</code> are returned, so the whole audience can be walked in fixed-size batches (keyset pagination),
+     * by passing in the last token of the previous batch. Use <code>null</code> to start with the first batch.
+     */
+    List<String> findDeviceTokenBatchForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                            String lastDeviceToken, int batchSize);
+
+    /**
+     * Sender API for SimplePush installations, streaming variant:
+     *
+     * Query the next batch of (distinct) pushEndpoint URLs for the given SimplePush variant, that are greater than the
+     * given <code>lastPushEndpointURL</code>. Use <code>null</code> to start with the first batch.
+     */
+    List<String> findPushEndpointURLBatchForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                String lastPushEndpointURL, int batchSize);
+
 }
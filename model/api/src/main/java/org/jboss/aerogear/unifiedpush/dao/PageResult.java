@@ -0,0 +1,48 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.dao;
+
+import java.util.List;
+
+/**
+ * A single page of a (potentially large) query result, together with the
+ * total number of matching entities.
+ */
+public class PageResult<T> {
+
+    private final List<T> resultList;
+    private final long count;
+
+    public PageResult(List<T> resultList, long count) {
+        this.resultList = resultList;
+        this.count = count;
+    }
+
+    /**
+     * The entities of the requested page.
+     */
+    public List<T> getResultList() {
+        return resultList;
+    }
+
+    /**
+     * The total number of entities matching the query, over all pages.
+     */
+    public long getCount() {
+        return count;
+    }
+}
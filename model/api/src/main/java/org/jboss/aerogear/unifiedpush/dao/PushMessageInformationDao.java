@@ -0,0 +1,48 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.dao;
+
+import org.jboss.aerogear.unifiedpush.api.PushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.VariantDeliveryResult;
+
+import java.util.Date;
+import java.util.List;
+
+public interface PushMessageInformationDao extends GenericBaseDao<PushMessageInformation, String> {
+
+    /**
+     * Stores the outcome of a push job for one variant.
+     */
+    void createVariantDeliveryResult(VariantDeliveryResult variantDeliveryResult);
+
+    /**
+     * Loads the outcomes of the given push job, for all variants that have been completed so far.
+     */
+    List<VariantDeliveryResult> findVariantDeliveryResultsForJob(String jobID);
+
+    /**
+     * Bulk API: removes the jobs submitted, and the variant results completed, before the given date.
+     *
+     * @return number of removed records
+     */
+    int deleteRecordsOlderThan(Date date);
+
+    /**
+     * Bulk API: writes all pending records to the database and detaches them afterwards.
+     */
+    void flushAndClear();
+}
@@ -16,19 +16,24 @@
  */
 package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
 
-import org.jboss.aerogear.unifiedpush.api.Variant;
 import org.jboss.aerogear.unifiedpush.api.Installation;
 import org.jboss.aerogear.unifiedpush.dao.InstallationDao;
+import org.jboss.aerogear.unifiedpush.dao.PageResult;
 
 import javax.persistence.Query;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class JPAInstallationDao extends JPABaseDao implements InstallationDao {
 
+    // JPQL strings of the dynamic finders, keyed by the shape of their criterias
+    private static final ConcurrentMap<String, String> QUERY_TEMPLATES = new ConcurrentHashMap<String, String>();
+
     @Override
     public void create(Installation installation) {
         persist(installation);
@@ -46,12 +51,67 @@ public class JPAInstallationDao extends JPABaseDao implements InstallationDao {
     }
 
 
+    @Override
+    public int deleteInstallationsForVariantByDeviceTokens(String variantID, Set<String> deviceTokens) {
+        // if there are no device-tokens, no need to bug the database
+        if (deviceTokens == null || deviceTokens.isEmpty()) {
+            return 0;
+        }
+
+        entityManager.joinTransaction();
+
+        // bulk deletes do not cascade to the element collection, so the categories go first:
+        entityManager.createNativeQuery("delete from Installation_categories where Installation_id in" +
+                " (select id from Installation where variantID = :variantID and deviceToken in (:deviceTokens))")
+                .setParameter("variantID", variantID)
+                .setParameter("deviceTokens", deviceTokens)
+                .executeUpdate();
+
+        return createQuery("delete from Installation installation" +
+                " where installation.variantID = :variantID" +
+                " and installation.deviceToken IN :deviceTokens")
+                .setParameter("variantID", variantID)
+                .setParameter("deviceTokens", deviceTokens)
+                .executeUpdate();
+    }
+
+    @Override
+    public int updateDeviceTokensForVariant(String variantID, Map<String, String> replacementTokens) {
+        // if there are no device-tokens, no need to bug the database
+        if (replacementTokens == null || replacementTokens.isEmpty()) {
+            return 0;
+        }
+
+        entityManager.joinTransaction();
+
+        final Query query = createQuery("update Installation installation" +
+                " set installation.deviceToken = :replacement" +
+                " where installation.variantID = :variantID" +
+                " and installation.deviceToken = :deviceToken")
+                .setParameter("variantID", variantID);
+
+        int updated = 0;
+        for (Map.Entry<String, String> replacement : replacementTokens.entrySet()) {
+            updated += query
+                    .setParameter("deviceToken", replacement.getKey())
+                    .setParameter("replacement", replacement.getValue())
+                    .executeUpdate();
+        }
+        return updated;
+    }
+
+    @Override
+    public void flushAndClear() {
+        entityManager.joinTransaction();
+        entityManager.flush();
+        entityManager.clear();
+    }
+
     @Override
     public Installation findInstallationForVariantByDeviceToken(String variantID, String deviceToken) {
 
-        Installation entity = getSingleResultForQuery(createQuery("select installation from Variant " +
-                " abstractVariant join abstractVariant.installations installation" +
-                " where abstractVariant.variantID = :variantID" +
+        Installation entity = getSingleResultForQuery(createQuery("select installation from Installation installation" +
+                " where installation.variantID = :variantID" +
                 " and installation.deviceToken = :deviceToken")
                 .setParameter("variantID", variantID)
                 .setParameter("deviceToken", deviceToken));
@@ -67,9 +127,8 @@ public class JPAInstallationDao extends JPABaseDao implements InstallationDao {
             return Collections.EMPTY_LIST;
         }
 
-        List<Installation> entities = createQuery("select installation from Variant " +
-                " abstractVariant join abstractVariant.installations installation" +
-                " where abstractVariant.variantID = :variantID" +
+        List<Installation> entities = createQuery("select installation from Installation installation" +
+                " where installation.variantID = :variantID" +
                 " and installation.deviceToken IN :deviceTokens")
                 .setParameter("variantID", variantID)
                 .setParameter("deviceTokens", deviceTokens)
@@ -79,23 +138,56 @@ public class JPAInstallationDao extends JPABaseDao implements InstallationDao {
     }
 
     @Override
-    public List<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes) {
-        // the required part: Join + all tokens for variantID;
+    @SuppressWarnings("unchecked")
+    public PageResult<Installation> findInstallationsForVariantByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                           int page, int pageSize) {
+
+        final Long count = (Long) createDynamicQuery("select count(installation) from Installation installation where installation.variantID = :variantID",
+                "", variantID, categories, aliases, deviceTypes)
+                .getSingleResult();
+
+        // no need to load the page, if there is nothing on it:
+        if (count == 0 || (long) page * pageSize >= count) {
+            return new PageResult<Installation>(Collections.<Installation>emptyList(), count);
+        }
+
+        final List<Installation> installations = createDynamicQuery("select installation from Installation installation where installation.variantID = :variantID",
+                " order by installation.id", variantID, categories, aliases, deviceTypes)
+                .setFirstResult(page * pageSize)
+                .setMaxResults(pageSize)
+                .getResultList();
 
-        final StringBuilder jpqlString = new StringBuilder("select installation.deviceToken from Variant")
-                .append(" abstractVariant join abstractVariant.installations installation where abstractVariant.variantID = :variantID AND installation.enabled = true");
+        return new PageResult<Installation>(installations, count);
+    }
 
-        return this.executeDynamicQuery(jpqlString, variantID, categories, aliases, deviceTypes);
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes) {
+        // the required part: all tokens for variantID;
+        return createDynamicQuery("select installation.deviceToken from Installation installation where installation.variantID = :variantID AND installation.enabled = true",
+                "", variantID, categories, aliases, deviceTypes)
+                .getResultList();
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public List<String> findAllPushEndpointURLsForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes) {
-        // the required part: Join + simplePushEndpoint URLs for given SimplePush variantID;
+        // the required part: simplePushEndpoint URLs for given SimplePush variantID;
+        return createDynamicQuery("select installation.simplePushEndpoint from Installation installation where installation.variantID = :variantID AND installation.enabled = true",
+                "", variantID, categories, aliases, deviceTypes)
+                .getResultList();
+    }
 
-        final StringBuilder jpqlString = new StringBuilder("select installation.simplePushEndpoint from Variant")
-                .append(" abstractVariant join abstractVariant.installations installation where abstractVariant.variantID = :variantID AND installation.enabled = true");
+    @Override
+    public List<String> findDeviceTokenBatchForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                   String lastDeviceToken, int batchSize) {
+        return this.executeKeysetQuery("deviceToken", variantID, categories, aliases, deviceTypes, lastDeviceToken, batchSize);
+    }
 
-        return this.executeDynamicQuery(jpqlString, variantID, categories, aliases, deviceTypes);
+    @Override
+    public List<String> findPushEndpointURLBatchForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                       String lastPushEndpointURL, int batchSize) {
+        return this.executeKeysetQuery("simplePushEndpoint", variantID, categories, aliases, deviceTypes, lastPushEndpointURL, batchSize);
     }
 
     @Override
@@ -106,72 +198,131 @@ public class JPAInstallationDao extends JPABaseDao implements InstallationDao {
     }
 
     /**
-     *
-     * A dynamic finder for all sorts of queries around selecting Device-Token, based on different criterias.
-     * The method appends different criterias to the given JPQL string, IF PRESENT.
-     *
-     * Done in one method, instead of having similar, but error-thrown Strings, in different methods.
-     *
-     * TODO: perhaps moving to Criteria API for this later
+     * Keyset pagination over the given (String) property of the matching installations: returns at most <code>batchSize</code>
+     * distinct values, that are greater than <code>lastValue</code>, in ascending order. Unlike an offset, the keyset lets the
+     * database continue right after the last value, so every batch costs the same.
      */
     @SuppressWarnings("unchecked")
-    private List<String> executeDynamicQuery(final StringBuilder jpqlBaseString, String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes) {
-
-        // parameter names and values, stored in a map:
-        final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
-
-        // OPTIONAL query arguments, as provided.....
-        // are aliases present ??
-        if (isListEmpty(aliases)) {
-            // append the string:
-            jpqlBaseString.append(" and installation.alias IN :aliases");
-            // add the params:
-            parameters.put("aliases", aliases);
-        }
+    private List<String> executeKeysetQuery(String property, String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                            String lastValue, int batchSize) {
 
-        // are devices present ??
-        if (isListEmpty(deviceTypes)) {
-            // append the string:
-            jpqlBaseString.append(" and installation.deviceType IN :deviceTypes");
-            // add the params:
-            parameters.put("deviceTypes", deviceTypes);
-        }
+        // null values can't be continued after (and are sorted last by e.g. PostgreSQL), so they are never part of a batch:
+        String head = "select distinct installation." + property + " from Installation installation"
+                + " where installation.variantID = :variantID AND installation.enabled = true"
+                + " and installation." + property + " is not null";
 
-        // is a category present ?
-        if (isListEmpty(categories)) {
+        // continue after the last value of the previous batch:
+        if (lastValue != null) {
+            head += " and installation." + property + " > :lastValue";
+        }
 
-            // See 'HHH-5209':
-            // the MEMBER OF does not work until Hibernate 4.1.8/4.3.0.Beta1
-            // We are actually on 4.0.1.Final
-            // suggested work around: IN ELEMENTS()
+        final Query query = createDynamicQuery(head, " order by installation." + property, variantID, categories, aliases, deviceTypes);
+        if (lastValue != null) {
+            query.setParameter("lastValue", lastValue);
+        }
 
-            // iteration over the given categories, to append all of them (as an OR...)
-            for (int i = 0; i < categories.size(); i++) {
+        return query.setMaxResults(batchSize).getResultList();
+    }
 
-                if (i == 0) {
-                    jpqlBaseString.append(" and ( :categories" + i + " IN ELEMENTS(installation.categories)");
-                } else {
-                    jpqlBaseString.append(" OR :categories" + i + " IN ELEMENTS(installation.categories)");
-                }
-                parameters.put("categories" + i, categories.get(i));
+    /**
+     *
+     * A dynamic finder for all sorts of queries around selecting installations (or their tokens), based on different criterias.
+     * The JPQL contains the different criterias IF PRESENT, between the given head (select and required part) and tail (order by).
+     *
+     * The JPQL string only depends on the "shape" of the criterias (which of them are present), not on their values, and is
+     * cached per shape. The collection parameters are padded to a few bucket sizes, so that Hibernate's query plan cache
+     * hits as well, no matter how many categories, aliases or deviceTypes are given.
+     */
+    private Query createDynamicQuery(String head, String tail, String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes) {
 
-            }
-            jpqlBaseString.append(')');
-        }
+        final boolean hasAliases = isListEmpty(aliases);
+        final boolean hasDeviceTypes = isListEmpty(deviceTypes);
+        final boolean hasCategories = isListEmpty(categories);
 
         // the entire JPQL string
-        Query jpql = createQuery(jpqlBaseString.toString());
+        Query jpql = createQuery(queryTemplate(head, tail, hasAliases, hasDeviceTypes, hasCategories));
         // add REQUIRED param:
         jpql.setParameter("variantID", variantID);
 
         // add the optionals, as needed:
-        Set<String> paramKeys = parameters.keySet();
-        for (String parameterName : paramKeys) {
-            jpql.setParameter(parameterName, parameters.get(parameterName));
+        if (hasAliases) {
+            jpql.setParameter("aliases", padToBucketSize(aliases));
+        }
+        if (hasDeviceTypes) {
+            jpql.setParameter("deviceTypes", padToBucketSize(deviceTypes));
+        }
+        if (hasCategories) {
+            jpql.setParameter("categories", padToBucketSize(categories));
         }
 
-        return jpql.getResultList();
+        return jpql;
     }
+
+    /**
+     * Returns the (cached) JPQL string for the given head/tail and the given shape of the OPTIONAL criterias.
+     */
+    private static String queryTemplate(String head, String tail, boolean hasAliases, boolean hasDeviceTypes, boolean hasCategories) {
+
+        final String key = (hasAliases ? "a" : "-") + (hasDeviceTypes ? "d" : "-") + (hasCategories ? "c" : "-") + head + tail;
+
+        String template = QUERY_TEMPLATES.get(key);
+        if (template == null) {
+            final StringBuilder jpqlString = new StringBuilder(head);
+
+            // OPTIONAL query arguments, as provided.....
+            // are aliases present ??
+            if (hasAliases) {
+                jpqlString.append(" and installation.alias IN :aliases");
+            }
+
+            // are devices present ??
+            if (hasDeviceTypes) {
+                jpqlString.append(" and installation.deviceType IN :deviceTypes");
+            }
+
+            // is a category present ?
+            if (hasCategories) {
+                // See 'HHH-5209':
+                // the MEMBER OF does not work until Hibernate 4.1.8/4.3.0.Beta1
+                // We are actually on 4.0.1.Final
+                // work around: a (correlated) subquery, joining the categories, for all categories at once
+                jpqlString.append(" and exists (select categorized.id from Installation categorized join categorized.categories category")
+                        .append(" where categorized.id = installation.id and category IN :categories)");
+            }
+
+            jpqlString.append(tail);
+
+            template = jpqlString.toString();
+            // the shapes are limited, so the cache does not need to be bounded:
+            QUERY_TEMPLATES.putIfAbsent(key, template);
+        }
+
+        return template;
+    }
+
+    /**
+     * Pads the given list (by repeating its last value) to the next power of two, so that the expanded IN-list
+     * of the query only takes a few different sizes.
+     */
+    static List<String> padToBucketSize(List<String> values) {
+        int bucketSize = 1;
+        while (bucketSize < values.size()) {
+            bucketSize <<= 1;
+        }
+
+        if (bucketSize == values.size()) {
+            return values;
+        }
+
+        final List<String> padded = new ArrayList<String>(bucketSize);
+        padded.addAll(values);
+        final String last = values.get(values.size() - 1);
+        while (padded.size() < bucketSize) {
+            padded.add(last);
+        }
+        return padded;
+    }
+
     /**
      * Checks if the list is empty, and not null
      */
@@ -20,10 +20,22 @@ import org.jboss.aerogear.unifiedpush.api.PushApplication;
 import org.jboss.aerogear.unifiedpush.dao.PushApplicationDao;
 
 import javax.persistence.Query;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class JPAPushApplicationDao extends JPABaseDao implements PushApplicationDao {
 
+    /**
+     * Fetch plan for the (lazy) variant collections: one query per collection, since joining all of
+     * them at once returns the product of the four collections. The installations of the variants
+     * are never part of it, they are queried separately.
+     */
+    private static final String[] VARIANT_COLLECTIONS = {
+            "iOSVariants", "androidVariants", "simplePushVariants", "chromePackagedAppVariants"
+    };
+
     @Override
     public void create(PushApplication pushApplication) {
         persist(pushApplication);
@@ -43,30 +55,24 @@ public class JPAPushApplicationDao extends JPABaseDao implements PushApplication
     @Override
     public List<PushApplication> findAllForDeveloper(String loginName) {
 
-        List<PushApplication> entities = createQuery("select pa from PushApplication pa where pa.developer = :developer")
-                .setParameter("developer", loginName).getResultList();
-
-        return entities;
+        return findWithVariants("pa.developer = :developer", Collections.singletonMap("developer", loginName));
     }
 
     @Override
     public PushApplication findByPushApplicationIDForDeveloper(String pushApplicationID, String loginName) {
 
-        PushApplication entity = getSingleResultForQuery(createQuery(
-                "select pa from PushApplication pa where pa.pushApplicationID = :pushApplicationID and pa.developer = :developer")
-                .setParameter("pushApplicationID", pushApplicationID)
-                .setParameter("developer", loginName));
+        final Map<String, String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("pushApplicationID", pushApplicationID);
+        parameters.put("developer", loginName);
 
-        return entity;
+        return getSingleResult(findWithVariants("pa.pushApplicationID = :pushApplicationID and pa.developer = :developer", parameters));
     }
 
     @Override
     public PushApplication findByPushApplicationID(String pushApplicationID) {
 
-        PushApplication entity = getSingleResultForQuery(createQuery("select pa from PushApplication pa where pa.pushApplicationID = :pushApplicationID")
-                .setParameter("pushApplicationID", pushApplicationID));
-
-        return entity;
+        return getSingleResult(findWithVariants("pa.pushApplicationID = :pushApplicationID",
+                Collections.singletonMap("pushApplicationID", pushApplicationID)));
     }
 
     @Override
@@ -75,9 +81,33 @@ public class JPAPushApplicationDao extends JPABaseDao implements PushApplication
         return  entity;
     }
 
-    private PushApplication getSingleResultForQuery(Query query) {
-        List<PushApplication> result = query.getResultList();
+    /**
+     * Loads the matching push applications, and their variants with one query per variant collection.
+     * All queries return the same managed instances, each one initializing another collection.
+     */
+    private List<PushApplication> findWithVariants(String condition, Map<String, String> parameters) {
+        List<PushApplication> entities = Collections.emptyList();
+
+        for (int i = 0; i < VARIANT_COLLECTIONS.length; i++) {
+            final Query query = createQuery("select distinct pa from PushApplication pa left join fetch pa."
+                    + VARIANT_COLLECTIONS[i] + " where " + condition);
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                query.setParameter(parameter.getKey(), parameter.getValue());
+            }
+
+            final List<PushApplication> result = query.getResultList();
+            if (i == 0) {
+                entities = result;
+            }
+            if (entities.isEmpty()) {
+                break;
+            }
+        }
+
+        return entities;
+    }
 
+    private PushApplication getSingleResult(List<PushApplication> result) {
         if (!result.isEmpty()) {
             return result.get(0);
         } else {
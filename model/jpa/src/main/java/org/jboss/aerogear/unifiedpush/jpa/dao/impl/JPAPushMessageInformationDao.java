@@ -0,0 +1,81 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
+
+import org.jboss.aerogear.unifiedpush.api.PushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.VariantDeliveryResult;
+import org.jboss.aerogear.unifiedpush.dao.PushMessageInformationDao;
+
+import javax.persistence.TemporalType;
+import java.util.Date;
+import java.util.List;
+
+public class JPAPushMessageInformationDao extends JPABaseDao implements PushMessageInformationDao {
+
+    @Override
+    public void create(PushMessageInformation pushMessageInformation) {
+        persist(pushMessageInformation);
+    }
+
+    @Override
+    public void update(PushMessageInformation pushMessageInformation) {
+        merge(pushMessageInformation);
+    }
+
+    @Override
+    public void delete(PushMessageInformation pushMessageInformation) {
+        PushMessageInformation entity = entityManager.find(PushMessageInformation.class, pushMessageInformation.getId());
+        remove(entity);
+    }
+
+    @Override
+    public PushMessageInformation find(String id) {
+        return entityManager.find(PushMessageInformation.class, id);
+    }
+
+    @Override
+    public void createVariantDeliveryResult(VariantDeliveryResult variantDeliveryResult) {
+        persist(variantDeliveryResult);
+    }
+
+    @Override
+    public List<VariantDeliveryResult> findVariantDeliveryResultsForJob(String jobID) {
+        return createQuery("select result from VariantDeliveryResult result where result.jobID = :jobID order by result.completedDate")
+                .setParameter("jobID", jobID)
+                .getResultList();
+    }
+
+    @Override
+    public int deleteRecordsOlderThan(Date date) {
+        entityManager.joinTransaction();
+
+        final int results = createQuery("delete from VariantDeliveryResult result where result.completedDate < :date")
+                .setParameter("date", date, TemporalType.TIMESTAMP)
+                .executeUpdate();
+
+        return results + createQuery("delete from PushMessageInformation job where job.submitDate < :date")
+                .setParameter("date", date, TemporalType.TIMESTAMP)
+                .executeUpdate();
+    }
+
+    @Override
+    public void flushAndClear() {
+        entityManager.joinTransaction();
+        entityManager.flush();
+        entityManager.clear();
+    }
+}
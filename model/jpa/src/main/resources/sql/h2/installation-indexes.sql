@@ -0,0 +1,31 @@
+--
+-- JBoss, Home of Professional Open Source
+-- Copyright Red Hat, Inc., and individual contributors.
+--
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+
+-- Indexes for the installation lookups of the UnifiedPush Server, matching the predicates of the
+-- installation finders (variantID plus deviceToken/enabled, alias and deviceType, and the categories).
+-- Run once, after the tables have been created.
+
+-- token selection of the senders (keyset batches over enabled installations):
+CREATE INDEX ix_inst_variant_enabled_token ON Installation (variantID, enabled, deviceToken);
+CREATE INDEX ix_inst_variant_enabled_endpoint ON Installation (variantID, enabled, simplePushEndpoint);
+
+-- optional criterias:
+CREATE INDEX ix_inst_variant_alias ON Installation (variantID, alias);
+CREATE INDEX ix_inst_variant_devicetype ON Installation (variantID, deviceType);
+
+-- category filter (correlated subquery per installation):
+CREATE INDEX ix_inst_categories ON Installation_categories (Installation_id, categories);
@@ -0,0 +1,28 @@
+--
+-- JBoss, Home of Professional Open Source
+-- Copyright Red Hat, Inc., and individual contributors.
+--
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+
+-- Migration for databases created before the unique (variantID, deviceToken) constraint was declared:
+-- removes duplicate registrations of a device (keeping one of them) and adds the constraint.
+
+DELETE c FROM Installation_categories c
+    JOIN Installation dup ON c.Installation_id = dup.id
+    JOIN Installation keep ON keep.variantID = dup.variantID AND keep.deviceToken = dup.deviceToken AND keep.id < dup.id;
+
+DELETE dup FROM Installation dup
+    JOIN Installation keep ON keep.variantID = dup.variantID AND keep.deviceToken = dup.deviceToken AND keep.id < dup.id;
+
+ALTER TABLE Installation ADD CONSTRAINT ux_inst_variant_token UNIQUE (variantID, deviceToken);
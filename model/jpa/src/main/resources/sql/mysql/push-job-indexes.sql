@@ -0,0 +1,26 @@
+--
+-- JBoss, Home of Professional Open Source
+-- Copyright Red Hat, Inc., and individual contributors.
+--
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+
+-- Index for the push job status lookups of the UnifiedPush Server.
+-- Run once, after the tables have been created.
+
+-- per-variant results of a push job:
+CREATE INDEX ix_delivery_result_job ON VariantDeliveryResult (jobID);
+
+-- removal of the expired records:
+CREATE INDEX ix_push_job_submit_date ON PushMessageInformation (submitDate);
+CREATE INDEX ix_delivery_result_completed ON VariantDeliveryResult (completedDate);
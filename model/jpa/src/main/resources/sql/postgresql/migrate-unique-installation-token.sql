@@ -0,0 +1,28 @@
+--
+-- JBoss, Home of Professional Open Source
+-- Copyright Red Hat, Inc., and individual contributors.
+--
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+--
+
+-- Migration for databases created before the unique (variantID, deviceToken) constraint was declared:
+-- removes duplicate registrations of a device (keeping one of them) and adds the constraint.
+
+DELETE FROM installation_categories c USING installation dup, installation keep
+    WHERE c.installation_id = dup.id
+    AND keep.variantid = dup.variantid AND keep.devicetoken = dup.devicetoken AND keep.id < dup.id;
+
+DELETE FROM installation dup USING installation keep
+    WHERE keep.variantid = dup.variantid AND keep.devicetoken = dup.devicetoken AND keep.id < dup.id;
+
+ALTER TABLE installation ADD CONSTRAINT ux_inst_variant_token UNIQUE (variantid, devicetoken);
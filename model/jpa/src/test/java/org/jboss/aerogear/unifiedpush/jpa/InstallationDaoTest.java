@@ -21,6 +21,7 @@ import org.jboss.aerogear.unifiedpush.api.Installation;
 import org.jboss.aerogear.unifiedpush.api.PushApplication;
 import org.jboss.aerogear.unifiedpush.api.SimplePushVariant;
 import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.dao.PageResult;
 import org.jboss.aerogear.unifiedpush.jpa.dao.impl.JPAInstallationDao;
 import org.jboss.aerogear.unifiedpush.jpa.dao.impl.JPAPushApplicationDao;
 import org.jboss.aerogear.unifiedpush.jpa.dao.impl.JPAVariantDao;
@@ -35,8 +36,10 @@ import javax.persistence.RollbackException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -107,6 +110,8 @@ public class InstallationDaoTest {
         categoriesOne.add("soccer");
         android1.setCategories(categoriesOne);
 
+        // register it with the variant:
+        android1.setVariantID(av.getVariantID());
         installationDao.create(android1);
 
         Installation android2 = new Installation();
@@ -117,6 +122,8 @@ public class InstallationDaoTest {
         categoriesTwo.add("news");
         android2.setCategories(categoriesTwo);
 
+        // register it with the variant:
+        android2.setVariantID(av.getVariantID());
         installationDao.create(android2);
 
         // disabled
@@ -128,11 +135,6 @@ public class InstallationDaoTest {
 
         installationDao.create(android3);
 
-        // register them:
-        av.getInstallations().add(android1);
-        av.getInstallations().add(android2);
-        variantDao.update(av);
-
         // ============== SimplePush client installations =========
         Installation simplePush1 = new Installation();
         simplePush1.setAlias("foo@bar.org");
@@ -140,6 +142,8 @@ public class InstallationDaoTest {
         simplePush1.setDeviceToken("123456");
         simplePush1.setCategories(categoriesOne);
 
+        // register it with the variant:
+        simplePush1.setVariantID(sp.getVariantID());
         installationDao.create(simplePush1);
 
         Installation simplePush2 = new Installation();
@@ -148,6 +152,8 @@ public class InstallationDaoTest {
         simplePush2.setCategories(categoriesTwo);
         simplePush2.setDeviceToken("1234567865432");
 
+        // register it with the variant:
+        simplePush2.setVariantID(sp.getVariantID());
         installationDao.create(simplePush2);
 
         Installation simplePush3 = new Installation();
@@ -157,13 +163,9 @@ public class InstallationDaoTest {
         simplePush3.setDeviceToken("167865432");
         simplePush3.setDeviceType("JavaFX Monitor");
 
+        // register it with the variant:
+        simplePush3.setVariantID(sp.getVariantID());
         installationDao.create(simplePush3);
-
-        // register the installation:
-        sp.getInstallations().add(simplePush1);
-        sp.getInstallations().add(simplePush2);
-        sp.getInstallations().add(simplePush3);
-        variantDao.update(sp);
     }
 
     @After
@@ -260,6 +262,79 @@ public class InstallationDaoTest {
         assertThat(tokens).hasSize(2);
     }
 
+    @Test
+    public void findDeviceTokensInBatches() {
+        List<String> tokens = installationDao.findDeviceTokenBatchForVariantIDByCriteria(androidVariantID, null, null, null, null, 1);
+        assertThat(tokens).containsExactly("123456");
+
+        tokens = installationDao.findDeviceTokenBatchForVariantIDByCriteria(androidVariantID, null, null, null, tokens.get(0), 1);
+        assertThat(tokens).containsExactly("678901");
+
+        tokens = installationDao.findDeviceTokenBatchForVariantIDByCriteria(androidVariantID, null, null, null, tokens.get(0), 1);
+        assertThat(tokens).isEmpty();
+    }
+
+    @Test
+    public void findDeviceTokensInBatchesForCategories() {
+        String[] cats = { "news", "weather" };
+        List<String> tokens = installationDao.findDeviceTokenBatchForVariantIDByCriteria(androidVariantID, Arrays.asList(cats), null, null, null, 10);
+        assertThat(tokens).containsExactly("678901");
+    }
+
+    @Test
+    public void findPushEndpointsInBatches() {
+        List<String> firstBatch = installationDao.findPushEndpointURLBatchForVariantIDByCriteria(simplePushVariantID, null, null, null, null, 2);
+        assertThat(firstBatch).hasSize(2);
+
+        List<String> secondBatch = installationDao.findPushEndpointURLBatchForVariantIDByCriteria(simplePushVariantID, null, null, null, firstBatch.get(1), 2);
+        assertThat(secondBatch).hasSize(1);
+        assertThat(secondBatch.get(0).compareTo(firstBatch.get(1)) > 0).isTrue();
+    }
+
+    @Test
+    public void skipNullPushEndpointsInBatches() {
+        // an installation without an endpoint, its null value would end the first batch on e.g. PostgreSQL:
+        Installation simplePush = new Installation();
+        simplePush.setDeviceToken("1234567890");
+        simplePush.setVariantID(simplePushVariantID);
+        installationDao.create(simplePush);
+
+        List<String> firstBatch = installationDao.findPushEndpointURLBatchForVariantIDByCriteria(simplePushVariantID, null, null, null, null, 3);
+        assertThat(firstBatch).hasSize(3).doesNotContainNull();
+
+        List<String> secondBatch = installationDao.findPushEndpointURLBatchForVariantIDByCriteria(simplePushVariantID, null, null, null, firstBatch.get(2), 3);
+        assertThat(secondBatch).isEmpty();
+    }
+
+    @Test
+    public void findInstallationsInPages() {
+        PageResult<Installation> firstPage = installationDao.findInstallationsForVariantByCriteria(simplePushVariantID, null, null, null, 0, 2);
+        assertThat(firstPage.getCount()).isEqualTo(3);
+        assertThat(firstPage.getResultList()).hasSize(2);
+
+        PageResult<Installation> secondPage = installationDao.findInstallationsForVariantByCriteria(simplePushVariantID, null, null, null, 1, 2);
+        assertThat(secondPage.getCount()).isEqualTo(3);
+        assertThat(secondPage.getResultList()).hasSize(1);
+        assertThat(firstPage.getResultList()).doesNotContain(secondPage.getResultList().get(0));
+
+        PageResult<Installation> thirdPage = installationDao.findInstallationsForVariantByCriteria(simplePushVariantID, null, null, null, 2, 2);
+        assertThat(thirdPage.getCount()).isEqualTo(3);
+        assertThat(thirdPage.getResultList()).isEmpty();
+    }
+
+    @Test
+    public void findInstallationsInPagesForDeviceTypeAndCategories() {
+        String[] types = { "Android Tablet" };
+        PageResult<Installation> page = installationDao.findInstallationsForVariantByCriteria(androidVariantID, null, null, Arrays.asList(types), 0, 10);
+        assertThat(page.getCount()).isEqualTo(1);
+        assertThat(page.getResultList().get(0).getDeviceToken()).isEqualTo("678901");
+
+        String[] cats = { "soccer" };
+        page = installationDao.findInstallationsForVariantByCriteria(androidVariantID, Arrays.asList(cats), null, null, 0, 10);
+        assertThat(page.getCount()).isEqualTo(1);
+        assertThat(page.getResultList().get(0).getDeviceToken()).isEqualTo("123456");
+    }
+
     @Test
     public void findAndDeleteOneInstallation() {
         final Set<String> tokenz = new HashSet<String>();
@@ -293,6 +368,48 @@ public class InstallationDaoTest {
         assertThat(list).hasSize(0);
     }
 
+    @Test
+    public void bulkDeleteTwoInstallations() {
+        final Set<String> tokenz = new HashSet<String>();
+        tokenz.add("123456");
+        tokenz.add("678901");
+        tokenz.add("unknown");
+
+        // flush to be sure that it's in the database
+        entityManager.flush();
+
+        assertThat(installationDao.deleteInstallationsForVariantByDeviceTokens(androidVariantID, tokenz)).isEqualTo(2);
+
+        // clear the cache, the bulk delete does not touch it
+        entityManager.clear();
+
+        assertThat(installationDao.findInstallationsForVariantByDeviceTokens(androidVariantID, tokenz)).isEmpty();
+
+        // the SimplePush installation with the same token is still there:
+        assertThat(installationDao.findInstallationForVariantByDeviceToken(simplePushVariantID, "123456")).isNotNull();
+    }
+
+    @Test
+    public void bulkUpdateDeviceTokens() {
+        final Map<String, String> replacements = new HashMap<String, String>();
+        replacements.put("123456", "canonical-123456");
+        replacements.put("unknown", "canonical-unknown");
+
+        // flush to be sure that it's in the database
+        entityManager.flush();
+
+        assertThat(installationDao.updateDeviceTokensForVariant(androidVariantID, replacements)).isEqualTo(1);
+
+        // clear the cache, the bulk update does not touch it
+        entityManager.clear();
+
+        assertThat(installationDao.findInstallationForVariantByDeviceToken(androidVariantID, "123456")).isNull();
+        assertThat(installationDao.findInstallationForVariantByDeviceToken(androidVariantID, "canonical-123456")).isNotNull();
+
+        // the SimplePush installation with the same token is untouched:
+        assertThat(installationDao.findInstallationForVariantByDeviceToken(simplePushVariantID, "123456")).isNotNull();
+    }
+
     @Test
     public void deleteNonExistingInstallation() {
         Installation installation = new Installation();
@@ -229,16 +229,18 @@ public class PushApplicationDaoTest {
 
         Installation androidInstallation1 = new Installation();
         androidInstallation1.setDeviceToken("12345432122323");
+        androidInstallation1.setVariantID(av.getVariantID());
         installationDao.create(androidInstallation1);
 
-        av.getInstallations().add(androidInstallation1);
-        variantDao.update(av);
-
         pa.getAndroidVariants().add(av);
         pushApplicationDao.update(pa);
 
         assertThat(installationDao.find(androidInstallation1.getId())).isNotNull();
 
+        // the installation is linked through its variantID, so the variant has to be loaded again to see it:
+        entityManager.flush();
+        entityManager.clear();
+
         pushApplicationDao.delete(pa);
         // flush to be sure that it's in the database
         entityManager.flush();
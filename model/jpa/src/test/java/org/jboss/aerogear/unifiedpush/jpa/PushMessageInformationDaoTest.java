@@ -0,0 +1,130 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa;
+
+import org.jboss.aerogear.unifiedpush.api.PushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.VariantDeliveryResult;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.jpa.dao.impl.JPAPushMessageInformationDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PushMessageInformationDaoTest {
+
+    private EntityManager entityManager;
+    private JPAPushMessageInformationDao pushMessageInformationDao;
+
+    @Before
+    public void setUp() {
+        EntityManagerFactory emf = Persistence.createEntityManagerFactory("UnifiedPush");
+        entityManager = emf.createEntityManager();
+
+        // start the shindig
+        entityManager.getTransaction().begin();
+
+        pushMessageInformationDao = new JPAPushMessageInformationDao();
+        pushMessageInformationDao.setEntityManager(entityManager);
+    }
+
+    @After
+    public void tearDown() {
+        entityManager.getTransaction().commit();
+
+        entityManager.close();
+    }
+
+    @Test
+    public void appendVariantResultsForJob() {
+        final PushMessageInformation job = new PushMessageInformation();
+        job.setPushApplicationID("app-1");
+        job.setVariantCount(2);
+        pushMessageInformationDao.create(job);
+
+        pushMessageInformationDao.createVariantDeliveryResult(result(job.getId(), "variant-1", 10, 9));
+        pushMessageInformationDao.createVariantDeliveryResult(result(job.getId(), "variant-2", 5, 5));
+        pushMessageInformationDao.createVariantDeliveryResult(result("other-job", "variant-1", 1, 1));
+        pushMessageInformationDao.flushAndClear();
+
+        final PushMessageInformation loaded = pushMessageInformationDao.find(job.getId());
+        assertThat(loaded.getPushApplicationID()).isEqualTo("app-1");
+        assertThat(loaded.getVariantCount()).isEqualTo(2);
+
+        final List<VariantDeliveryResult> results = pushMessageInformationDao.findVariantDeliveryResultsForJob(job.getId());
+        assertThat(results).hasSize(2);
+        long failures = 0;
+        for (VariantDeliveryResult result : results) {
+            failures += result.getFailures();
+        }
+        assertThat(failures).isEqualTo(1);
+    }
+
+    @Test
+    public void deleteExpiredRecords() {
+        final Date expired = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31));
+
+        final PushMessageInformation oldJob = new PushMessageInformation();
+        oldJob.setPushApplicationID("app-1");
+        oldJob.setSubmitDate(expired);
+        pushMessageInformationDao.create(oldJob);
+        final VariantDeliveryResult oldResult = result(oldJob.getId(), "variant-1", 10, 10);
+        oldResult.setCompletedDate(expired);
+        pushMessageInformationDao.createVariantDeliveryResult(oldResult);
+
+        final PushMessageInformation job = new PushMessageInformation();
+        job.setPushApplicationID("app-1");
+        pushMessageInformationDao.create(job);
+        pushMessageInformationDao.createVariantDeliveryResult(result(job.getId(), "variant-1", 10, 10));
+        pushMessageInformationDao.flushAndClear();
+
+        final int removed = pushMessageInformationDao.deleteRecordsOlderThan(
+                new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30)));
+
+        assertThat(removed).isEqualTo(2);
+        assertThat(pushMessageInformationDao.find(oldJob.getId())).isNull();
+        assertThat(pushMessageInformationDao.findVariantDeliveryResultsForJob(oldJob.getId())).isEmpty();
+        assertThat(pushMessageInformationDao.find(job.getId())).isNotNull();
+        assertThat(pushMessageInformationDao.findVariantDeliveryResultsForJob(job.getId())).hasSize(1);
+    }
+
+    @Test
+    public void findUnknownJob() {
+        assertThat(pushMessageInformationDao.find("unknown")).isNull();
+        assertThat(pushMessageInformationDao.findVariantDeliveryResultsForJob("unknown")).isEmpty();
+    }
+
+    private VariantDeliveryResult result(String jobID, String variantID, long receivers, long successes) {
+        final VariantDeliveryResult result = new VariantDeliveryResult();
+        result.setJobID(jobID);
+        result.setVariantID(variantID);
+        result.setVariantType(VariantType.ANDROID);
+        result.setReceivers(receivers);
+        result.setSuccesses(successes);
+        result.setFailures(receivers - successes);
+        result.setDurationMillis(42);
+        return result;
+    }
+}
@@ -219,14 +219,16 @@ public class VariantDaoTest {
 
         Installation androidInstallation1 = new Installation();
         androidInstallation1.setDeviceToken("12345432122323");
+        androidInstallation1.setVariantID(queriedVariant.getVariantID());
         installationDao.create(androidInstallation1);
 
-        queriedVariant.getInstallations().add(androidInstallation1);
-        variantDao.update(queriedVariant);
-
         Installation storedInstallation =  installationDao.find(androidInstallation1.getId());
         assertThat(storedInstallation.getId()).isEqualTo(androidInstallation1.getId());
 
+        // the installation is linked through its variantID, so the variant has to be loaded again to see it:
+        entityManager.flush();
+        entityManager.clear();
+
         variantDao.delete(queriedVariant);
         assertThat(variantDao.findByVariantID(uuid)).isNull();
 
@@ -27,6 +27,7 @@ public interface SenderService {
      * 
      * @param pushApplication the root target for all installations being notified 
      * @param payload the payload to be sent
+     * @param jobID the identifier under which the outcome of the delivery is recorded
      */
-    void send(PushApplication pushApplication, UnifiedPushMessage payload);
+    void send(PushApplication pushApplication, UnifiedPushMessage payload, String jobID);
 }
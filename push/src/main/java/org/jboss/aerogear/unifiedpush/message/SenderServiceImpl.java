@@ -16,10 +16,13 @@
  */
 package org.jboss.aerogear.unifiedpush.message;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.ejb.Asynchronous;
@@ -29,12 +32,21 @@ import javax.inject.Inject;
 import org.jboss.aerogear.unifiedpush.api.AndroidVariant;
 import org.jboss.aerogear.unifiedpush.api.ChromePackagedAppVariant;
 import org.jboss.aerogear.unifiedpush.api.PushApplication;
+import org.jboss.aerogear.unifiedpush.api.PushMessageInformation;
 import org.jboss.aerogear.unifiedpush.api.SimplePushVariant;
 import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.api.VariantDeliveryResult;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
 import org.jboss.aerogear.unifiedpush.api.iOSVariant;
+import org.jboss.aerogear.unifiedpush.message.dispatch.Backoff;
+import org.jboss.aerogear.unifiedpush.message.dispatch.PushNetworkDispatcher;
+import org.jboss.aerogear.unifiedpush.message.dispatch.RateLimiters;
+import org.jboss.aerogear.unifiedpush.message.jobs.PushJobRecorder;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
 import org.jboss.aerogear.unifiedpush.message.sender.APNsPushNotificationSender;
 import org.jboss.aerogear.unifiedpush.message.sender.GCMForChromePushNotificationSender;
 import org.jboss.aerogear.unifiedpush.message.sender.GCMPushNotificationSender;
+import org.jboss.aerogear.unifiedpush.message.sender.PermanentDeliveryException;
 import org.jboss.aerogear.unifiedpush.message.sender.SimplePushNotificationSender;
 import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
 import org.jboss.aerogear.unifiedpush.service.GenericVariantService;
@@ -43,10 +55,18 @@ import org.jboss.aerogear.unifiedpush.service.GenericVariantService;
 @Asynchronous
 public class SenderServiceImpl implements SenderService {
 
+    /**
+     * Number of tokens that are loaded from the database, and submitted to the push network, in one go.
+     * Can be configured with the <code>aerogear.unifiedpush.sender.batchSize</code> system property.
+     */
+    private static final int TOKEN_BATCH_SIZE = Integer.getInteger("aerogear.unifiedpush.sender.batchSize", 1000);
+
     private final Logger logger = Logger.getLogger(SenderServiceImpl.class.getName());
-    private final SimplePushNotificationSender simplePushSender = new SimplePushNotificationSender();
-    private final GCMForChromePushNotificationSender gcmForChromePushNotificationSender = new GCMForChromePushNotificationSender();
 
+    @Inject
+    private SimplePushNotificationSender simplePushSender;
+    @Inject
+    private GCMForChromePushNotificationSender gcmForChromePushNotificationSender;
     @Inject
     private GCMPushNotificationSender gcmSender;
     @Inject
@@ -55,11 +75,20 @@ public class SenderServiceImpl implements SenderService {
     private ClientInstallationService clientInstallationService;
     @Inject
     private GenericVariantService genericVariantService;
+    @Inject
+    private PushNetworkDispatcher dispatcher;
+    @Inject
+    private RateLimiters rateLimiters;
+    @Inject
+    private PushMetrics metrics;
+    @Inject
+    private PushJobRecorder jobRecorder;
 
     @Override
     @Asynchronous
-    public void send(PushApplication pushApplication, UnifiedPushMessage message) {
+    public void send(PushApplication pushApplication, final UnifiedPushMessage message, final String jobID) {
         logger.info(String.format("Processing send request with '%s' payload", message));
+        metrics.messageAccepted();
 
         // collections for all the different variants:
         final Set<iOSVariant> iOSVariants = new HashSet<iOSVariant>();
@@ -75,7 +104,14 @@ public class SenderServiceImpl implements SenderService {
         if (variantIDs != null) {
 
             for (String variantID : variantIDs) {
-                Variant variant = genericVariantService.findByVariantID(variantID);
+                final Variant variant;
+                try {
+                    variant = genericVariantService.findByVariantID(variantID);
+                } catch (RuntimeException e) {
+                    // skip the variant, but still deliver to the others:
+                    logger.log(Level.SEVERE, String.format("Could not load variant %s of job %s", variantID, jobID), e);
+                    continue;
+                }
 
                 // does the variant exist ? 
                 if (variant != null) {
@@ -93,6 +129,7 @@ public class SenderServiceImpl implements SenderService {
                         break;
                     case CHROME_PACKAGED_APP:
                         chromePackagedAppVariants.add((ChromePackagedAppVariant) variant);
+                        break;
                     default:
                         // nope; should never enter here
                         break;
@@ -108,69 +145,254 @@ public class SenderServiceImpl implements SenderService {
             chromePackagedAppVariants.addAll(pushApplication.getChromePackagedAppVariants());
         }
 
-        // all possible criteria
-        final List<String> categories = criteria.getCategories();
-        final List<String> aliases = criteria.getAliases();
-        final List<String> deviceTypes = criteria.getDeviceTypes();
+        final String simplePushVersionPayload = message.getSimplePush();
+
+        // record the job, with the number of variants that are going to report their outcome:
+        final PushMessageInformation job = new PushMessageInformation();
+        job.setId(jobID);
+        job.setPushApplicationID(pushApplication.getPushApplicationID());
+        if (message.getData() != null) {
+            job.setVariantCount(iOSVariants.size() + androidVariants.size() + chromePackagedAppVariants.size());
+        }
+        if (simplePushVersionPayload != null) {
+            job.setVariantCount(job.getVariantCount() + simplePushVariants.size());
+        }
+        jobRecorder.jobSubmitted(job);
+
+        // token lookup and delivery happens concurrently for all variants, on the queue of the matching
+        // push network, so that each network is drained at its own rate:
+        final List<TokenBatchDelivery> deliveries = new ArrayList<TokenBatchDelivery>();
 
         // let's check if we actually have data for native platforms!
         if (message.getData() != null) {
 
-            // TODO: DISPATCH TO A QUEUE .....
-            for (iOSVariant iOSVariant : iOSVariants) {
-                final List<String> tokenPerVariant = clientInstallationService.findAllDeviceTokenForVariantIDByCriteria(iOSVariant.getVariantID(), categories,
-                        aliases, deviceTypes);
-                this.sendToAPNs(iOSVariant, tokenPerVariant, message);
+            for (final iOSVariant iOSVariant : iOSVariants) {
+                deliveries.add(new TokenBatchDelivery(jobID, VariantType.IOS, iOSVariant.getVariantID(), iOSVariant.getVariantID(), criteria) {
+                    @Override
+                    protected int deliver(List<String> tokens) {
+                        return sendToAPNs(iOSVariant, tokens, message);
+                    }
+                });
             }
 
-            // TODO: DISPATCH TO A QUEUE .....
-            for (AndroidVariant androidVariant : androidVariants) {
-                final List<String> androidTokenPerVariant = clientInstallationService.findAllDeviceTokenForVariantIDByCriteria(androidVariant.getVariantID(), categories,
-                        aliases, deviceTypes);
-                this.sendToGCM(androidVariant, androidTokenPerVariant, message);
+            for (final AndroidVariant androidVariant : androidVariants) {
+                deliveries.add(new TokenBatchDelivery(jobID, VariantType.ANDROID, androidVariant.getVariantID(), androidVariant.getGoogleKey(), criteria) {
+                    @Override
+                    protected int deliver(List<String> tokens) {
+                        return sendToGCM(androidVariant, tokens, message);
+                    }
+                });
             }
 
-            // TODO: DISPATCH TO A QUEUE .....
-            for(ChromePackagedAppVariant chromePackagedAppVariant : chromePackagedAppVariants) {
-                final List<String> chromePackagedAppTokenPerVariant = clientInstallationService.findAllDeviceTokenForVariantIDByCriteria(chromePackagedAppVariant.getVariantID(), categories,
-                        aliases, deviceTypes);
-                this.sendToGCMForChrome(chromePackagedAppVariant, chromePackagedAppTokenPerVariant, message);
+            for (final ChromePackagedAppVariant chromePackagedAppVariant : chromePackagedAppVariants) {
+                deliveries.add(new TokenBatchDelivery(jobID, VariantType.CHROME_PACKAGED_APP, chromePackagedAppVariant.getVariantID(), chromePackagedAppVariant.getClientId(), criteria) {
+                    @Override
+                    protected int deliver(List<String> tokens) {
+                        return sendToGCMForChrome(chromePackagedAppVariant, tokens, message);
+                    }
+                });
             }
         }
 
-        // TODO: DISPATCH TO A QUEUE .....
-        final String simplePushVersionPayload = message.getSimplePush();
-
         // if no SimplePush object is present: skip it.
-        if (simplePushVersionPayload == null) {
-            return;
+        if (simplePushVersionPayload != null) {
+
+            for (final SimplePushVariant simplePushVariant : simplePushVariants) {
+                deliveries.add(new TokenBatchDelivery(jobID, VariantType.SIMPLE_PUSH, simplePushVariant.getVariantID(), null, criteria) {
+                    @Override
+                    protected List<String> loadBatch(String lastPushEndpointURL) {
+                        return clientInstallationService.findSimplePushEndpointURLBatchForVariantIDByCriteria(variantID,
+                                criteria.getCategories(), criteria.getAliases(), criteria.getDeviceTypes(), lastPushEndpointURL, TOKEN_BATCH_SIZE);
+                    }
+
+                    @Override
+                    protected int deliver(List<String> pushEndpointURLs) {
+                        return sentToSimplePush(pushEndpointURLs, simplePushVersionPayload);
+                    }
+                });
+            }
         }
 
-        for (SimplePushVariant simplePushVariant : simplePushVariants) {
-            final List<String> pushEndpointURLsPerCategory = clientInstallationService.findAllSimplePushEndpointURLsForVariantIDByCriteria(simplePushVariant
-                    .getVariantID(), categories, aliases, deviceTypes);
-            this.sentToSimplePush(pushEndpointURLsPerCategory, simplePushVersionPayload);
+        dispatchAll(deliveries);
+    }
+
+    /**
+     * Hands the deliveries over to the queues of their push networks. The deliveries for a full queue are
+     * retried after the other networks have been served, so that a backed up network (e.g. a hanging APNs
+     * gateway) does not hold back the variants of the other networks.
+     */
+    private void dispatchAll(List<TokenBatchDelivery> deliveries) {
+        List<TokenBatchDelivery> pending = deliveries;
+        while (!pending.isEmpty()) {
+            final List<TokenBatchDelivery> rejected = new ArrayList<TokenBatchDelivery>();
+            for (TokenBatchDelivery delivery : pending) {
+                if (!dispatcher.tryDispatch(delivery.network, delivery)) {
+                    rejected.add(delivery);
+                }
+            }
+
+            if (!rejected.isEmpty() && rejected.size() == pending.size()) {
+                // all remaining networks are backed up, wait for a free slot on one of them:
+                final TokenBatchDelivery delivery = rejected.remove(0);
+                dispatcher.dispatch(delivery.network, delivery);
+            }
+            pending = rejected;
         }
     }
 
-    private void sendToAPNs(iOSVariant iOSVariant, Collection<String> tokens, UnifiedPushMessage pushMessage) {
+    private int sendToAPNs(iOSVariant iOSVariant, Collection<String> tokens, UnifiedPushMessage pushMessage) {
         logger.fine(String.format("Sending: %s to APNs", pushMessage));
-        apnsSender.sendPushMessage(iOSVariant, tokens, pushMessage);
+        return apnsSender.sendPushMessage(iOSVariant, tokens, pushMessage);
     }
 
-    private void sendToGCM(AndroidVariant androidVariant, List<String> tokens, UnifiedPushMessage pushMessage) {
+    private int sendToGCM(AndroidVariant androidVariant, List<String> tokens, UnifiedPushMessage pushMessage) {
         logger.fine(String.format("Sending: %s to GCM", pushMessage));
-        gcmSender.sendPushMessage(androidVariant, tokens, pushMessage);
+        return gcmSender.sendPushMessage(androidVariant, tokens, pushMessage);
     }
 
-    private void sentToSimplePush(List<String> pushEndpointURLs, String payload) {
+    private int sentToSimplePush(List<String> pushEndpointURLs, String payload) {
         logger.fine(String.format("Sending: %s to SimplePush network/server", payload));
-        simplePushSender.sendMessage(pushEndpointURLs, payload);
+        return simplePushSender.sendMessage(pushEndpointURLs, payload);
     }
 
-    private void sendToGCMForChrome( ChromePackagedAppVariant chromePackagedAppVariant, List<String> channelIDs, UnifiedPushMessage pushMessage ) {
+    private int sendToGCMForChrome( ChromePackagedAppVariant chromePackagedAppVariant, List<String> channelIDs, UnifiedPushMessage pushMessage ) {
         logger.fine(String.format("Sending: %s to GCM For Chrome", pushMessage));
-        gcmForChromePushNotificationSender.sendMessage(chromePackagedAppVariant, channelIDs, pushMessage);
+        return gcmForChromePushNotificationSender.sendMessage(chromePackagedAppVariant, channelIDs, pushMessage);
+    }
+
+    /**
+     * Walks over all matching tokens of one variant in fixed-size batches, and hands each batch over to the
+     * push network. That way the memory used for a send stays flat, regardless of the size of the audience.
+     * Once done, the outcome is recorded for the job.
+     *
+     * <p>
+     * A batch that has to wait for the rate limits, or that failed and is retried after a backoff, is held back on
+     * the delay queue of the dispatcher. The delivery then continues with that batch, on the next free worker.
+     */
+    private abstract class TokenBatchDelivery implements Runnable {
+
+        protected final String jobID;
+        protected final VariantType network;
+        protected final String variantID;
+        protected final String credential;
+        protected final SendCriteria criteria;
+
+        // progress, carried over when the delivery is held back:
+        private boolean started;
+        private long startOfVariant;
+        private long receivers;
+        private long successes;
+        private String lastToken;
+        private List<String> batch;
+        private boolean reserved;
+        private int retries;
+
+        TokenBatchDelivery(String jobID, VariantType network, String variantID, String credential, SendCriteria criteria) {
+            this.jobID = jobID;
+            this.network = network;
+            this.variantID = variantID;
+            this.credential = credential;
+            this.criteria = criteria;
+        }
+
+        @Override
+        public void run() {
+            if (!started) {
+                started = true;
+                startOfVariant = System.nanoTime();
+            }
+            boolean heldBack = false;
+            try {
+                heldBack = deliverBatches();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, String.format("Error delivering job %s to variant %s", jobID, variantID), e);
+            } finally {
+                if (!heldBack) {
+                    final VariantDeliveryResult result = new VariantDeliveryResult();
+                    result.setJobID(jobID);
+                    result.setVariantID(variantID);
+                    result.setVariantType(network);
+                    result.setReceivers(receivers);
+                    result.setSuccesses(successes);
+                    result.setFailures(receivers - successes);
+                    result.setDurationMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startOfVariant));
+                    jobRecorder.variantCompleted(result);
+                }
+            }
+        }
+
+        /**
+         * Delivers the remaining batches.
+         *
+         * @return <code>true</code> if the delivery has been held back, to be continued later
+         */
+        private boolean deliverBatches() {
+            while (true) {
+                if (batch == null) {
+                    batch = loadBatch(lastToken);
+                    if (batch.isEmpty()) {
+                        return false;
+                    }
+                    metrics.tokensResolved(network, batch.size());
+                }
+
+                if (!reserved) {
+                    final long wait = rateLimiters.reserve(network, credential, batch.size());
+                    reserved = true;
+                    if (wait > 0) {
+                        dispatcher.dispatchLater(network, this, wait, TimeUnit.NANOSECONDS);
+                        return true;
+                    }
+                }
+
+                final long start = System.nanoTime();
+                try {
+                    successes += deliver(batch);
+                    metrics.batchDelivered(network, start);
+                } catch (PermanentDeliveryException e) {
+                    // e.g. an invalid certificate, the remaining batches are not even loaded:
+                    logger.log(Level.SEVERE, String.format("Error delivering job %s to variant %s, giving up on the variant",
+                            jobID, variantID), e);
+                    receivers += batch.size();
+                    return false;
+                } catch (RuntimeException e) {
+                    if (retries < Backoff.MAX_ATTEMPTS) {
+                        retries++;
+                        final long delay = Backoff.delayMillis(retries);
+                        logger.log(Level.WARNING, String.format("Error delivering job %s to variant %s, retry %d in %d ms",
+                                jobID, variantID, retries, delay), e);
+                        // the retry goes through the rate limits again:
+                        reserved = false;
+                        dispatcher.dispatchLater(network, this, delay, TimeUnit.MILLISECONDS);
+                        return true;
+                    }
+                    logger.log(Level.SEVERE, String.format("Error delivering job %s to variant %s, giving up on %d tokens",
+                            jobID, variantID, batch.size()), e);
+                }
+
+                receivers += batch.size();
+                final boolean lastBatch = batch.size() < TOKEN_BATCH_SIZE;
+                lastToken = batch.get(batch.size() - 1);
+                batch = null;
+                reserved = false;
+                retries = 0;
+                if (lastBatch) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Loads the batch of tokens, following the given token (<code>null</code> for the first batch)
+         */
+        protected List<String> loadBatch(String lastToken) {
+            return clientInstallationService.findDeviceTokenBatchForVariantIDByCriteria(variantID,
+                    criteria.getCategories(), criteria.getAliases(), criteria.getDeviceTypes(), lastToken, TOKEN_BATCH_SIZE);
+        }
 
+        /**
+         * Submits the given batch of tokens to the push network and returns the number of accepted tokens
+         */
+        protected abstract int deliver(List<String> tokens);
     }
 }
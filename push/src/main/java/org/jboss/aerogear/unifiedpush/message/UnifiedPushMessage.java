@@ -17,6 +17,10 @@
 package org.jboss.aerogear.unifiedpush.message;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.aerogear.unifiedpush.api.VariantType;
 
 /**
  * Contains the data of the JSON payload that has been sent to the
@@ -38,6 +42,9 @@ public class UnifiedPushMessage {
 
     private final Map<String, Object> data;
 
+    // the payloads of the push networks, built once and shared by all variants and batches:
+    private final ConcurrentMap<VariantType, Object> compiledPayloads = new ConcurrentHashMap<VariantType, Object>();
+
     /**
      * Messages are submitted as flexible JSON maps, like:
      * <pre>
@@ -193,6 +200,24 @@ public class UnifiedPushMessage {
         return data;
     }
 
+    /**
+     * Returns the payload of this message for the given push network. It is compiled by the given compiler on first
+     * use, afterwards the same instance is returned for all variants and batches of the network.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getCompiledPayload(VariantType network, PayloadCompiler<T> compiler) {
+        T payload = (T) compiledPayloads.get(network);
+        if (payload == null) {
+            // in a race both compile, but only the first payload is kept:
+            final T compiled = compiler.compile(this);
+            payload = (T) compiledPayloads.putIfAbsent(network, compiled);
+            if (payload == null) {
+                payload = compiled;
+            }
+        }
+        return payload;
+    }
+
     @Override
     public String toString() {
         return "UnifiedPushMessage [criteria=" + criteria + ", simplePush=" + simplePush + ", alert=" + alert + ", sound=" + sound + ", badge=" + badge + ", data="
@@ -17,37 +17,349 @@
 package org.jboss.aerogear.unifiedpush.message.cache;
 
 import java.io.ByteArrayInputStream;
-import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
 
 import com.notnoop.apns.APNS;
 import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.ApnsServiceBuilder;
 import org.jboss.aerogear.unifiedpush.api.iOSVariant;
 
-public class APNsCache implements Serializable {
-    private static final long serialVersionUID = -1913999384798892563L;
+/**
+ * Pool of long-lived {@link ApnsService} connections, keyed by the <code>variantID</code> and
+ * the production flag of an {@link iOSVariant}.
+ *
+ * <p>
+ * Parsing the PKCS12 certificate and doing the TLS handshake with Apple is expensive, so a service is created once
+ * and reused for all following sends. A pooled service is replaced when the certificate (or its passphrase) of the
+ * variant has been changed, and it is shut down after it has not been used for a while. A service is leased while it
+ * is used, so that a replaced, evicted or idle service is only stopped once it has been {@link #release(ApnsService) released}.
+ * A service is built without holding a lock that is shared with other variants: a placeholder is published first, and
+ * concurrent callers for the same variant wait for it to be built.
+ * The pool can be tuned with the following system properties:
+ * <ul>
+ * <li><code>aerogear.unifiedpush.apns.connections</code>: connections per variant (default: 1)
+ * <li><code>aerogear.unifiedpush.apns.idleTimeout</code>: seconds until an unused connection is closed (default: 600)
+ * <li><code>aerogear.unifiedpush.apns.gateway</code>: <code>host:port</code> of the gateway, overriding Apple's (default: unset)
+ * <li><code>aerogear.unifiedpush.apns.feedback</code>: <code>host:port</code> of the feedback service, overriding Apple's (default: unset)
+ * </ul>
+ */
+@ApplicationScoped
+public class APNsCache {
+
+    private static final int CONNECTIONS = Integer.getInteger("aerogear.unifiedpush.apns.connections", 1);
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("aerogear.unifiedpush.apns.idleTimeout", 600));
+
+    private final Logger logger = Logger.getLogger(APNsCache.class.getName());
 
-    private final ConcurrentHashMap<String, ApnsService> apnsCache = new ConcurrentHashMap<String, ApnsService>();
+    // the destinations can be pointed to a different (e.g. mock) server for load testing
+    private final String gateway = System.getProperty("aerogear.unifiedpush.apns.gateway");
+    private final String feedback = System.getProperty("aerogear.unifiedpush.apns.feedback");
 
+    private final ConcurrentHashMap<String, PooledService> apnsCache = new ConcurrentHashMap<String, PooledService>();
+
+    // all services which have not been stopped yet, including the retired ones that are still leased:
+    private final ConcurrentHashMap<ApnsService, PooledService> services = new ConcurrentHashMap<ApnsService, PooledService>();
+
+    private ScheduledExecutorService idleReaper;
+
+    @PostConstruct
+    public void startIdleReaper() {
+        idleReaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "unifiedpush-apns-idle-reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final long period = Math.max(1000, IDLE_TIMEOUT_MILLIS / 2);
+        idleReaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                stopIdleServices();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a started {@link ApnsService} for the given variant, or <code>null</code> if the variant has no
+     * certificate/passphrase. The returned service is leased and has to be {@link #release(ApnsService) released}
+     * after use.
+     */
     public ApnsService getApnsServiceForVariant(iOSVariant iOSVariant) {
-        ApnsService variantService = null;
-        synchronized (apnsCache) {
-            String variantId = iOSVariant.getVariantID();
-            variantService = apnsCache.get(variantId);
 
-            if (variantService == null) {
-                variantService = APNS
-                        .newService()
-                        .withCert(
-                                new ByteArrayInputStream(iOSVariant.getCertificate()),
-                                iOSVariant.getPassphrase()).withSandboxDestination()
-                               .asQueued().build();
+        // this check should not be needed, but you never know:
+        if (iOSVariant.getCertificate() == null || iOSVariant.getPassphrase() == null) {
+            return null;
+        }
+
+        final String key = keyFor(iOSVariant);
+        while (true) {
+            PooledService pooled = apnsCache.get(key);
+
+            if (pooled == null || !pooled.matches(iOSVariant)) {
+                pooled = create(key, pooled, iOSVariant);
+                if (pooled == null) {
+                    // someone else has created (or replaced) it in the meantime
+                    continue;
+                }
+            }
 
-                // store it:
-                apnsCache.put(variantId, variantService);
+            // waits until the service has been built:
+            final ApnsService service = pooled.lease();
+            if (service != null) {
+                return service;
             }
+            // it has been evicted (or closed as idle) in the meantime, look up its successor
         }
+    }
+
+    /**
+     * Returns the lease of a service, which has been taken by {@link #getApnsServiceForVariant(iOSVariant)}.
+     */
+    public void release(ApnsService service) {
+        final PooledService pooled = services.get(service);
+        if (pooled != null && pooled.release()) {
+            stop(pooled);
+        }
+    }
+
+    /**
+     * Removes the given connection of the given variant, e.g. after it has failed with a network error, and closes
+     * it once it has been released. The next call to {@link #getApnsServiceForVariant(iOSVariant)} will establish a
+     * new one. A connection which has already been replaced is left alone.
+     */
+    public void evict(iOSVariant iOSVariant, ApnsService service) {
+        final PooledService pooled = services.get(service);
+        if (pooled != null && apnsCache.remove(keyFor(iOSVariant), pooled)) {
+            retire(pooled);
+        }
+    }
+
+    /**
+     * Publishes a new (not yet built) service in place of the given one, and builds it. Callers for the same
+     * variant wait for the build, callers for other variants are not blocked.
+     *
+     * @return the new service, or <code>null</code> if another one has been published in the meantime
+     */
+    private PooledService create(String key, PooledService replaced, iOSVariant iOSVariant) {
+        final PooledService created = new PooledService(iOSVariant);
+        final boolean published = (replaced == null) ? apnsCache.putIfAbsent(key, created) == null : apnsCache.replace(key, replaced, created);
+        if (!published) {
+            return null;
+        }
+
+        if (replaced != null) {
+            logger.info(String.format("Certificate of variant '%s' has changed, replacing its APNs connection", iOSVariant.getVariantID()));
+            retire(replaced);
+        }
+
+        try {
+            final ApnsService service = buildApnsService(iOSVariant);
+            services.put(service, created);
+            if (created.built(service)) {
+                // evicted while it was built:
+                stop(created);
+            }
+        } catch (RuntimeException e) {
+            // e.g. an invalid certificate, the waiting callers fail as well, the next call tries again:
+            apnsCache.remove(key, created);
+            created.failed(e);
+            throw e;
+        }
+        return created;
+    }
+
+    @PreDestroy
+    public void stopAll() {
+        idleReaper.shutdownNow();
+
+        for (ApnsService service : services.keySet()) {
+            stopQuietly(service);
+        }
+        apnsCache.clear();
+        services.clear();
+    }
+
+    private void stopIdleServices() {
+        final long idleSince = System.currentTimeMillis() - IDLE_TIMEOUT_MILLIS;
+
+        for (Iterator<Map.Entry<String, PooledService>> iterator = apnsCache.entrySet().iterator(); iterator.hasNext();) {
+            final Map.Entry<String, PooledService> entry = iterator.next();
+            if (entry.getValue().isIdle(idleSince)) {
+                logger.fine(String.format("Closing idle APNs connection '%s'", entry.getKey()));
+                // only remove it, if it has not been replaced in the meantime:
+                if (apnsCache.remove(entry.getKey(), entry.getValue())) {
+                    retire(entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the given service, which has been removed from the pool, as soon as it is no longer leased.
+     */
+    private void retire(PooledService pooled) {
+        if (pooled.retire()) {
+            stop(pooled);
+        }
+    }
 
-        return variantService;
+    private void stop(PooledService pooled) {
+        services.remove(pooled.service);
+        stopQuietly(pooled.service);
+    }
+
+    ApnsService buildApnsService(iOSVariant iOSVariant) {
+        final ApnsServiceBuilder builder = APNS.newService();
+
+        // add the certificate:
+        builder.withCert(new ByteArrayInputStream(iOSVariant.getCertificate()), iOSVariant.getPassphrase());
+
+        // pick the destination:
+        if (iOSVariant.isProduction()) {
+            builder.withProductionDestination();
+        } else {
+            builder.withSandboxDestination();
+        }
+
+        // or a custom one, e.g. a mock server used for load testing:
+        if (gateway != null) {
+            builder.withGatewayDestination(host(gateway), port(gateway));
+        }
+        if (feedback != null) {
+            builder.withFeedbackDestination(host(feedback), port(feedback));
+        }
+
+        if (CONNECTIONS > 1) {
+            builder.asPool(CONNECTIONS);
+        }
+
+        // create and start the service
+        final ApnsService service = builder.build();
+        service.start();
+
+        return service;
+    }
+
+    private static String host(String destination) {
+        return destination.substring(0, destination.lastIndexOf(':'));
+    }
+
+    private static int port(String destination) {
+        return Integer.parseInt(destination.substring(destination.lastIndexOf(':') + 1));
+    }
+
+    private void stopQuietly(ApnsService service) {
+        try {
+            service.stop();
+        } catch (RuntimeException e) {
+            logger.log(Level.FINE, "Error while closing APNs connection", e);
+        }
+    }
+
+    private static String keyFor(iOSVariant iOSVariant) {
+        return iOSVariant.getVariantID() + (iOSVariant.isProduction() ? ":production" : ":sandbox");
+    }
+
+    /**
+     * A service (which might still be built), together with the credentials it is created with, and its leases.
+     */
+    private static class PooledService {
+        private final byte[] certificate;
+        private final String passphrase;
+        private ApnsService service;
+        private RuntimeException failure;
+        private long lastUsed = System.currentTimeMillis();
+        private int leases;
+        private boolean retired;
+
+        PooledService(iOSVariant iOSVariant) {
+            this.certificate = iOSVariant.getCertificate().clone();
+            this.passphrase = iOSVariant.getPassphrase();
+        }
+
+        boolean matches(iOSVariant iOSVariant) {
+            return Arrays.equals(certificate, iOSVariant.getCertificate()) && passphrase.equals(iOSVariant.getPassphrase());
+        }
+
+        /**
+         * @return <code>true</code> if the service has been retired while it was built, and can be stopped right away
+         */
+        synchronized boolean built(ApnsService service) {
+            this.service = service;
+            notifyAll();
+            return retired && leases == 0;
+        }
+
+        synchronized void failed(RuntimeException failure) {
+            this.failure = failure;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the service has been built, and leases it.
+         *
+         * @return <code>null</code> if the service has been retired, and must not be used any longer
+         */
+        synchronized ApnsService lease() {
+            boolean interrupted = false;
+            while (service == null && failure == null && !retired) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // the build does not take long, keep waiting:
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+            if (retired) {
+                return null;
+            }
+            leases++;
+            lastUsed = System.currentTimeMillis();
+            return service;
+        }
+
+        /**
+         * @return <code>true</code> if the service has been retired, and this was its last lease
+         */
+        synchronized boolean release() {
+            leases--;
+            return retired && leases == 0;
+        }
+
+        synchronized boolean isIdle(long idleSince) {
+            return service != null && leases == 0 && lastUsed < idleSince;
+        }
+
+        /**
+         * @return <code>true</code> if the service is built and not leased, and can be stopped right away
+         */
+        synchronized boolean retire() {
+            retired = true;
+            notifyAll();
+            return service != null && leases == 0;
+        }
     }
 }
@@ -0,0 +1,160 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.aerogear.unifiedpush.message.helper.ChromePackagedAppTokenCache;
+
+/**
+ * Thread-safe cache of the OAuth access tokens of the GCM for Chrome applications, keyed by their <code>clientId</code>.
+ *
+ * <p>
+ * At most one refresh per <code>clientId</code> is in flight at any time: concurrent callers wait for it and share its
+ * result, instead of all hitting the OAuth endpoint. A token is refreshed ahead of time once it is within the refresh
+ * margin of its expiry; while that happens, the other callers keep using the still valid token. The cache is bounded,
+ * the least recently used clients are evicted first.
+ */
+public class ChromeAccessTokenCache {
+
+    /**
+     * Obtains a new access token from the OAuth endpoint.
+     */
+    public interface TokenRefresher {
+
+        /**
+         * @return the new token, or <code>null</code> if none could be obtained
+         */
+        ChromePackagedAppTokenCache refresh() throws Exception;
+    }
+
+    private final Logger logger = Logger.getLogger(ChromeAccessTokenCache.class.getName());
+
+    private final long refreshMarginMillis;
+    private final Map<String, Holder> holders;
+
+    /**
+     * @param maxSize maximum number of clients, before the least recently used one is evicted
+     * @param refreshMarginMillis time (in milliseconds) before its expiry, when a token is refreshed ahead of time
+     */
+    public ChromeAccessTokenCache(final int maxSize, long refreshMarginMillis) {
+        this.refreshMarginMillis = refreshMarginMillis;
+        this.holders = new LinkedHashMap<String, Holder>(16, 0.75f, true) {
+            private static final long serialVersionUID = 3172583120764216931L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Holder> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns a valid access token for the given client, refreshing it with the given refresher when needed.
+     *
+     * @return the access token, or <code>null</code> if there is no valid one and the refresh has failed
+     */
+    public String getAccessToken(String clientId, TokenRefresher refresher) {
+        final Holder holder = holderFor(clientId);
+
+        ChromePackagedAppTokenCache token = holder.token;
+        final long now = System.currentTimeMillis();
+
+        if (isValid(token, now + refreshMarginMillis)) {
+            return token.getAccessToken();
+        }
+
+        if (isValid(token, now)) {
+            // about to expire: only one caller refreshes it, the others keep using the current one
+            if (holder.lock.tryLock()) {
+                try {
+                    refresh(clientId, holder, refresher, now + refreshMarginMillis);
+                } finally {
+                    holder.lock.unlock();
+                }
+            }
+            return holder.token.getAccessToken();
+        }
+
+        // no usable token: wait for the refresh that may already be in flight, or do it
+        holder.lock.lock();
+        try {
+            refresh(clientId, holder, refresher, System.currentTimeMillis());
+            token = holder.token;
+            return isValid(token, System.currentTimeMillis()) ? token.getAccessToken() : null;
+        } finally {
+            holder.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the token of the given client, e.g. after it has been rejected.
+     */
+    public void invalidate(String clientId) {
+        synchronized (holders) {
+            holders.remove(clientId);
+        }
+    }
+
+    public int size() {
+        synchronized (holders) {
+            return holders.size();
+        }
+    }
+
+    private Holder holderFor(String clientId) {
+        synchronized (holders) {
+            Holder holder = holders.get(clientId);
+            if (holder == null) {
+                holder = new Holder();
+                holders.put(clientId, holder);
+            }
+            return holder;
+        }
+    }
+
+    /**
+     * Refreshes the token of the holder, unless another caller has already done so (so that it is valid until
+     * <code>validUntil</code>). Has to be called with the lock of the holder held.
+     */
+    private void refresh(String clientId, Holder holder, TokenRefresher refresher, long validUntil) {
+        if (isValid(holder.token, validUntil)) {
+            return;
+        }
+        try {
+            final ChromePackagedAppTokenCache token = refresher.refresh();
+            if (token != null && token.getAccessToken() != null) {
+                holder.token = token;
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error while refreshing the access token of GCM for Chrome client " + clientId, e);
+        }
+    }
+
+    private static boolean isValid(ChromePackagedAppTokenCache token, long at) {
+        return token != null && token.getAccessToken() != null && token.getExpiresIn() > at;
+    }
+
+    private static class Holder {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile ChromePackagedAppTokenCache token;
+    }
+}
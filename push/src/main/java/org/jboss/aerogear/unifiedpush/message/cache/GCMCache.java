@@ -19,20 +19,24 @@ package org.jboss.aerogear.unifiedpush.message.cache;
 import java.io.Serializable;
 import java.util.concurrent.ConcurrentHashMap;
 
-import com.google.android.gcm.server.Sender;
+import com.google.android.gcm.server.Constants;
+import org.jboss.aerogear.unifiedpush.message.sender.GCMSender;
 
 public class GCMCache implements Serializable {
 
     private static final long serialVersionUID = 8171485458336202582L;
 
-    private final ConcurrentHashMap<String, Sender> cache = new ConcurrentHashMap<String, Sender>();
+    private final ConcurrentHashMap<String, GCMSender> cache = new ConcurrentHashMap<String, GCMSender>();
 
-    public Sender getSenderForAPIKey(String googleAPIKey) {
-        Sender sender = cache.get(googleAPIKey);
+    // the GCM endpoint can be pointed to a different (e.g. mock) server for load testing
+    private final String endpoint = System.getProperty("aerogear.unifiedpush.gcm.endpoint", Constants.GCM_SEND_ENDPOINT);
+
+    public GCMSender getSenderForAPIKey(String googleAPIKey) {
+        GCMSender sender = cache.get(googleAPIKey);
 
         if (sender == null) {
             // create and cache:
-            sender = new Sender(googleAPIKey);
+            sender = new GCMSender(googleAPIKey, endpoint);
             cache.put(googleAPIKey, sender);
         }
 
@@ -0,0 +1,52 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.dispatch;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter, for retrying failed deliveries. Configured with the following system properties:
+ * <ul>
+ * <li><code>aerogear.unifiedpush.retry.maxAttempts</code>: number of retries, after the first attempt (default: 3)
+ * <li><code>aerogear.unifiedpush.retry.initialDelay</code>: milliseconds before the first retry (default: 1000)
+ * <li><code>aerogear.unifiedpush.retry.maxDelay</code>: upper bound of the delay, in milliseconds (default: 60000)
+ * </ul>
+ */
+public final class Backoff {
+
+    public static final int MAX_ATTEMPTS = Integer.getInteger("aerogear.unifiedpush.retry.maxAttempts", 3);
+
+    private static final long INITIAL_DELAY_MILLIS = Long.getLong("aerogear.unifiedpush.retry.initialDelay", 1000);
+    private static final long MAX_DELAY_MILLIS = Long.getLong("aerogear.unifiedpush.retry.maxDelay", 60000);
+
+    private static final Random RANDOM = new Random();
+
+    private Backoff() {
+        // no instances
+    }
+
+    /**
+     * Returns the delay before the given retry (starting with <code>1</code>): the exponential delay, of which the
+     * second half is randomized, so that the retries of many failed requests are spread out.
+     */
+    public static long delayMillis(int retry) {
+        final long exponential = INITIAL_DELAY_MILLIS << Math.min(Math.max(retry - 1, 0), 20);
+        final long delay = Math.min(MAX_DELAY_MILLIS, exponential);
+        final long half = delay / 2;
+        return half + (long) (RANDOM.nextDouble() * (delay - half));
+    }
+}
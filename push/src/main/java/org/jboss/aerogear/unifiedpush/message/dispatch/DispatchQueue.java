@@ -0,0 +1,154 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.dispatch;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded work queue, drained by its own (fixed size) pool of worker threads.
+ *
+ * <p>
+ * Once the queue has reached its capacity, {@link #submit(Runnable)} blocks the caller until one of the
+ * workers has picked up a pending task. This gives natural backpressure: a slow push network fills up
+ * its own queue, without affecting the queues of the other networks. Callers that have work for other
+ * queues as well can use {@link #offer(Runnable)}, which never blocks.
+ */
+public class DispatchQueue {
+
+    private final Logger logger = Logger.getLogger(DispatchQueue.class.getName());
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    // one permit per task that is either waiting or running:
+    private final Semaphore slots;
+
+    /**
+     * @param name the name of the queue, also used for naming the worker threads
+     * @param workers number of worker threads that are draining the queue
+     * @param capacity maximum number of pending tasks, before the submitting thread is blocked
+     */
+    public DispatchQueue(String name, int workers, int capacity) {
+        this.name = name;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory(name));
+        this.slots = new Semaphore(workers + capacity);
+    }
+
+    /**
+     * Puts the given task on the queue. Blocks if the queue is full.
+     *
+     * @throws RejectedExecutionException if the queue has been shut down
+     */
+    public void submit(Runnable task) {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a free slot on the dispatch queue", e);
+        }
+        execute(task);
+    }
+
+    /**
+     * Puts the given task on the queue, if there is room left.
+     *
+     * @return <code>false</code> if the queue is full and the task has not been accepted
+     * @throws RejectedExecutionException if the queue has been shut down
+     */
+    public boolean offer(Runnable task) {
+        if (!slots.tryAcquire()) {
+            return false;
+        }
+        execute(task);
+        return true;
+    }
+
+    /**
+     * Returns the number of tasks, waiting for a free worker.
+     */
+    public int getPendingTasks() {
+        return executor.getQueue().size();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Stops accepting new tasks and waits (for the given timeout) until the pending tasks have been processed.
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                logger.warning(String.format("Dispatch queue '%s' did not terminate in time, %d tasks are dropped",
+                        name, executor.shutdownNow().size()));
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute(final Runnable task) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        // keep the worker alive, one broken task should not affect the others:
+                        logger.log(Level.SEVERE, "Error while processing task on dispatch queue '" + name + "'", e);
+                    } finally {
+                        slots.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the queue has been shut down
+            slots.release();
+            throw e;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        WorkerThreadFactory(String name) {
+            this.prefix = "unifiedpush-" + name + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.dispatch;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+
+/**
+ * Holds one {@link DispatchQueue} per push network (APNs, GCM, SimplePush and GCM for Chrome).
+ *
+ * <p>
+ * Every network has its own bounded queue and worker pool, so a slow network (e.g. a hanging APNs gateway)
+ * only delays the delivery to its own variants. The size of each pool and queue can be configured with the
+ * following system properties, where <code>network</code> is the {@link VariantType#getTypeName() type name}
+ * of the variant (e.g. <code>ios</code> or <code>android</code>):
+ * <ul>
+ * <li><code>aerogear.unifiedpush.dispatch.network.workers</code> (default: 4)
+ * <li><code>aerogear.unifiedpush.dispatch.network.capacity</code> (default: 1000)
+ * </ul>
+ * Tasks which have to wait (e.g. for a retry or a rate limit) are held back on a delay queue, and handed over to the
+ * queue of their network once they are due, instead of occupying one of its workers.
+ */
+@ApplicationScoped
+public class PushNetworkDispatcher {
+
+    private static final String PROPERTY_PREFIX = "aerogear.unifiedpush.dispatch.";
+    private static final int DEFAULT_WORKERS = 4;
+    private static final int DEFAULT_CAPACITY = 1000;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+    private static final long FULL_QUEUE_DELAY_MILLIS = 100;
+
+    private final Logger logger = Logger.getLogger(PushNetworkDispatcher.class.getName());
+
+    private final Map<VariantType, DispatchQueue> queues = new EnumMap<VariantType, DispatchQueue>(VariantType.class);
+
+    private ScheduledExecutorService delayQueue;
+
+    @PostConstruct
+    public void startQueues() {
+        delayQueue = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "unifiedpush-dispatch-delay");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        for (VariantType type : VariantType.values()) {
+            final String network = type.getTypeName();
+            final int workers = Integer.getInteger(PROPERTY_PREFIX + network + ".workers", DEFAULT_WORKERS);
+            final int capacity = Integer.getInteger(PROPERTY_PREFIX + network + ".capacity", DEFAULT_CAPACITY);
+
+            logger.fine(String.format("Starting dispatch queue for '%s' with %d workers and a capacity of %d", network, workers, capacity));
+            queues.put(type, new DispatchQueue(network, workers, capacity));
+        }
+    }
+
+    /**
+     * Submits the given task to the queue of the given push network. If the queue is full,
+     * the caller is blocked until the network has caught up.
+     *
+     * @param network the push network, identified by the variant type
+     * @param task the work (e.g. token lookup and delivery for one variant) to be done
+     */
+    public void dispatch(VariantType network, Runnable task) {
+        queues.get(network).submit(task);
+    }
+
+    /**
+     * Submits the given task to the queue of the given push network, if that queue is not full.
+     *
+     * @param network the push network, identified by the variant type
+     * @param task the work (e.g. token lookup and delivery for one variant) to be done
+     * @return <code>false</code> if the queue is full and the task has not been accepted
+     */
+    public boolean tryDispatch(VariantType network, Runnable task) {
+        return queues.get(network).offer(task);
+    }
+
+    /**
+     * Submits the given task to the queue of the given push network, once the given delay has passed.
+     * The caller is never blocked, if the queue is full at that time, the task is held back a little longer.
+     *
+     * @param network the push network, identified by the variant type
+     * @param task the work (e.g. the retry of a failed delivery) to be done
+     * @param delay the time to wait, before the task is submitted
+     * @param unit the unit of the delay
+     */
+    public void dispatchLater(final VariantType network, final Runnable task, long delay, TimeUnit unit) {
+        delayQueue.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!tryDispatch(network, task)) {
+                    dispatchLater(network, task, FULL_QUEUE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Returns the number of tasks that are waiting for the given push network.
+     */
+    public int getPendingTasks(VariantType network) {
+        return queues.get(network).getPendingTasks();
+    }
+
+    @PreDestroy
+    public void stopQueues() {
+        delayQueue.shutdownNow();
+        for (DispatchQueue queue : queues.values()) {
+            queue.shutdown(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+}
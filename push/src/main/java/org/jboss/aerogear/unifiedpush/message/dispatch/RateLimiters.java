@@ -0,0 +1,137 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.dispatch;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+
+/**
+ * Limits the rate (in notifications per second) at which the tokens are handed over to the push networks,
+ * for each network as a whole and for each credential (e.g. Google API key or iOS certificate) on a network.
+ *
+ * <p>
+ * Both limits are off by default. They are configured with the following system properties, where
+ * <code>network</code> is the {@link VariantType#getTypeName() type name} of the variant:
+ * <ul>
+ * <li><code>aerogear.unifiedpush.ratelimit.network.rate</code>: for all sends to the network
+ * <li><code>aerogear.unifiedpush.ratelimit.network.credentialRate</code>: for the sends with one credential
+ * <li><code>aerogear.unifiedpush.ratelimit.credentials</code>: number of credential limits that are kept (default: 1000),
+ * the least recently used ones are dropped first
+ * </ul>
+ * A limit allows bursts of one second worth of notifications. The credentials themselves are not kept, only a digest.
+ */
+@ApplicationScoped
+public class RateLimiters {
+
+    private static final String PROPERTY_PREFIX = "aerogear.unifiedpush.ratelimit.";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<VariantType, TokenBucket> networkLimits = new EnumMap<VariantType, TokenBucket>(VariantType.class);
+    private final Map<VariantType, Integer> credentialRates = new EnumMap<VariantType, Integer>(VariantType.class);
+    private final int maxCredentials = Integer.getInteger(PROPERTY_PREFIX + "credentials", 1000);
+
+    // keyed by a digest of the network and the credential (which may be a secret, like the Google API key):
+    private final Map<String, TokenBucket> credentialLimits = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+        private static final long serialVersionUID = -2358391862744510293L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+            return size() > maxCredentials;
+        }
+    };
+
+    public RateLimiters() {
+        for (VariantType type : VariantType.values()) {
+            final int rate = Integer.getInteger(PROPERTY_PREFIX + type.getTypeName() + ".rate", 0);
+            if (rate > 0) {
+                networkLimits.put(type, new TokenBucket(rate, rate));
+            }
+            credentialRates.put(type, Integer.getInteger(PROPERTY_PREFIX + type.getTypeName() + ".credentialRate", 0));
+        }
+    }
+
+    /**
+     * Takes the given number of permits from the limits of the network and of the credential.
+     *
+     * @param network the push network
+     * @param credential identifies the credential used for the send, or <code>null</code> if there is none
+     * @param permits number of notifications that are going to be sent
+     * @return the time (in nanoseconds) the caller has to wait, before it may send them
+     */
+    public long reserve(VariantType network, String credential, int permits) {
+        long wait = 0;
+
+        final TokenBucket networkLimit = networkLimits.get(network);
+        if (networkLimit != null) {
+            wait = networkLimit.reserve(permits);
+        }
+
+        final TokenBucket credentialLimit = credentialLimit(network, credential);
+        if (credentialLimit != null) {
+            wait = Math.max(wait, credentialLimit.reserve(permits));
+        }
+        return wait;
+    }
+
+    private TokenBucket credentialLimit(VariantType network, String credential) {
+        final int rate = credentialRates.get(network);
+        if (rate <= 0 || credential == null) {
+            return null;
+        }
+
+        final String key = digest(network.getTypeName() + ':' + credential);
+        synchronized (credentialLimits) {
+            TokenBucket limit = credentialLimits.get(key);
+            if (limit == null) {
+                limit = new TokenBucket(rate, rate);
+                credentialLimits.put(key, limit);
+            }
+            return limit;
+        }
+    }
+
+    int credentialLimitCount() {
+        synchronized (credentialLimits) {
+            return credentialLimits.size();
+        }
+    }
+
+    private static String digest(String value) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has to support it
+            throw new IllegalStateException(e);
+        }
+
+        final byte[] hash = digest.digest(value.getBytes(UTF_8));
+        final StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
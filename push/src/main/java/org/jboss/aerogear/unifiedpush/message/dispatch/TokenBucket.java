@@ -0,0 +1,66 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe token bucket, which refills at a fixed rate up to its capacity.
+ *
+ * <p>
+ * A reservation may exceed the permits that are currently available (e.g. a whole batch of tokens at once): the
+ * bucket goes into debt and the following reservations have to wait, until the debt has been paid off. That way
+ * the rate is kept on average, without ever splitting up a batch.
+ */
+public class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double capacity;
+
+    private double available;
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond the rate at which the bucket refills
+     * @param capacity the maximum number of permits, which can be used in a single burst
+     */
+    public TokenBucket(double permitsPerSecond, double capacity) {
+        if (permitsPerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("rate and capacity have to be positive");
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.available = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes the given number of permits from the bucket.
+     *
+     * @return the time (in nanoseconds) the caller has to wait, before it may use the permits
+     */
+    public synchronized long reserve(int permits) {
+        final long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+
+        // the caller waits for the debt of the previous reservations, its own debt is paid by the next one:
+        final long wait = available >= 0 ? 0 : (long) Math.ceil(-available / permitsPerNano);
+        available -= permits;
+        return wait;
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.feedback;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import com.notnoop.apns.ApnsService;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.api.iOSVariant;
+import org.jboss.aerogear.unifiedpush.message.cache.APNsCache;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
+
+/**
+ * Polls the APNs feedback service for the inactive devices of the iOS variants, in the background, so that sending
+ * never waits for a feedback exchange.
+ *
+ * <p>
+ * A variant is polled from its first send on, until it has not been sent to for two intervals. The inactive tokens
+ * are collected per variant and removed with one (batched) deletion per variant and poll; tokens whose deletion
+ * could not be started are kept for the next poll. The interval can be configured with the
+ * <code>aerogear.unifiedpush.apns.feedbackInterval</code> system property (seconds, default: 300).
+ */
+@ApplicationScoped
+public class APNsFeedbackPoller {
+
+    private static final long INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("aerogear.unifiedpush.apns.feedbackInterval", 300));
+
+    private final Logger logger = Logger.getLogger(APNsFeedbackPoller.class.getName());
+
+    private final ConcurrentHashMap<String, PolledVariant> variants = new ConcurrentHashMap<String, PolledVariant>();
+
+    // only accessed by poll():
+    private final Map<String, Set<String>> inactiveTokens = new HashMap<String, Set<String>>();
+
+    @Inject
+    private APNsCache apnsCache;
+
+    @Inject
+    private ClientInstallationService clientInstallationService;
+
+    @Inject
+    private PushMetrics metrics;
+
+    private ScheduledExecutorService poller;
+
+    @PostConstruct
+    public void startPoller() {
+        poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "unifiedpush-apns-feedback");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                // an escaping exception would cancel the polling for good:
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "Error while polling the APNs feedback service", e);
+                }
+            }
+        }, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stopPoller() {
+        poller.shutdownNow();
+    }
+
+    /**
+     * Notes that the given variant has been sent to, so its feedback will be polled.
+     */
+    public void variantSent(iOSVariant iOSVariant) {
+        final PolledVariant polled = new PolledVariant(iOSVariant, System.currentTimeMillis());
+        // the latest instance wins, it carries the current certificate:
+        variants.put(iOSVariant.getVariantID(), polled);
+    }
+
+    /**
+     * Fetches the inactive devices of all polled variants and hands them over for deletion.
+     */
+    synchronized void poll() {
+        final long idleSince = System.currentTimeMillis() - 2 * INTERVAL_MILLIS;
+
+        for (Iterator<Map.Entry<String, PolledVariant>> iterator = variants.entrySet().iterator(); iterator.hasNext();) {
+            final Map.Entry<String, PolledVariant> entry = iterator.next();
+            final PolledVariant polled = entry.getValue();
+
+            try {
+                fetchInactiveTokens(polled.variant);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Error while polling the feedback of variant " + entry.getKey(), e);
+            }
+
+            if (polled.lastSent < idleSince) {
+                // only remove it, if it has not been sent to in the meantime:
+                variants.remove(entry.getKey(), polled);
+            }
+        }
+
+        for (Iterator<Map.Entry<String, Set<String>>> iterator = inactiveTokens.entrySet().iterator(); iterator.hasNext();) {
+            final Map.Entry<String, Set<String>> entry = iterator.next();
+            try {
+                // trigger asynchronous deletion, of a copy that is not touched by later polls:
+                clientInstallationService.removeInstallationsForVariantByDeviceTokens(entry.getKey(), new HashSet<String>(entry.getValue()));
+                metrics.invalidTokensPruned(VariantType.IOS, entry.getValue().size());
+                iterator.remove();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, String.format("Could not remove %d inactive installations of variant %s, retrying with the next poll",
+                        entry.getValue().size(), entry.getKey()), e);
+            }
+        }
+    }
+
+    private void fetchInactiveTokens(iOSVariant iOSVariant) {
+        ApnsService service = null;
+        final Set<String> tokens;
+        try {
+            // e.g. an expired certificate fails already here:
+            service = apnsCache.getApnsServiceForVariant(iOSVariant);
+            if (service == null) {
+                return;
+            }
+            tokens = service.getInactiveDevices().keySet();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Could not fetch the inactive devices of variant " + iOSVariant.getVariantID(), e);
+            if (service != null) {
+                apnsCache.evict(iOSVariant, service);
+            }
+            return;
+        } finally {
+            if (service != null) {
+                apnsCache.release(service);
+            }
+        }
+        if (tokens.isEmpty()) {
+            return;
+        }
+
+        Set<String> pending = inactiveTokens.get(iOSVariant.getVariantID());
+        if (pending == null) {
+            pending = new HashSet<String>();
+            inactiveTokens.put(iOSVariant.getVariantID(), pending);
+        }
+        // The Java-APNs lib returns the tokens in UPPERCASE format, however, the iOS Devices submit the token in
+        // LOWER CASE format:
+        for (String token : tokens) {
+            pending.add(token.toLowerCase());
+        }
+    }
+
+    private static class PolledVariant {
+        private final iOSVariant variant;
+        private final long lastSent;
+
+        PolledVariant(iOSVariant variant, long lastSent) {
+            this.variant = variant;
+            this.lastSent = lastSent;
+        }
+    }
+}
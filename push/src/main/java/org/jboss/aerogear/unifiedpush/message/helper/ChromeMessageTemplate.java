@@ -0,0 +1,52 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.helper;
+
+import java.nio.charset.Charset;
+
+import org.json.simple.JSONValue;
+
+/**
+ * The JSON body of a GCM for Chrome message, for a given payload. The parts that are the same for every channel
+ * (including the escaped payload) are encoded once, so that only the channelId has to be added per request.
+ */
+public class ChromeMessageTemplate {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] PREFIX = "{\"channelId\":\"".getBytes(UTF_8);
+
+    private final byte[] suffix;
+
+    /**
+     * @param payload the payload delivered to the application, <code>null</code> is sent as an empty string
+     */
+    public ChromeMessageTemplate(String payload) {
+        suffix = ("\",\"subchannelId\":\"0\",\"payload\":\"" + JSONValue.escape(payload == null ? "" : payload) + "\"}").getBytes(UTF_8);
+    }
+
+    /**
+     * Returns the encoded message body for the given channel.
+     */
+    public byte[] bodyFor(String channelID) {
+        final byte[] channel = JSONValue.escape(channelID).getBytes(UTF_8);
+        final byte[] body = new byte[PREFIX.length + channel.length + suffix.length];
+        System.arraycopy(PREFIX, 0, body, 0, PREFIX.length);
+        System.arraycopy(channel, 0, body, PREFIX.length, channel.length);
+        System.arraycopy(suffix, 0, body, PREFIX.length + channel.length, suffix.length);
+        return body;
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.jobs;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.jboss.aerogear.unifiedpush.api.PushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.VariantDeliveryResult;
+import org.jboss.aerogear.unifiedpush.service.PushJobService;
+
+/**
+ * Collects the records of the push jobs in memory and appends them to the database in the background,
+ * so recording a job or a variant result never waits for the database.
+ *
+ * <p>
+ * The pending records are written in one transaction, in a fixed interval. The record of a job is always kept,
+ * since its jobID has already been handed out to the client. If the database can not keep up, new variant results
+ * are dropped (and logged) instead of growing the memory: the status of their job turns <code>unknown</code> once it
+ * has timed out. Records older than the retention period are removed every hour. Tuned with the following system
+ * properties:
+ * <ul>
+ * <li><code>aerogear.unifiedpush.jobs.flushInterval</code>: milliseconds between two writes (default: 1000)
+ * <li><code>aerogear.unifiedpush.jobs.maxPending</code>: maximum number of variant results waiting to be written (default: 10000)
+ * <li><code>aerogear.unifiedpush.jobs.retentionDays</code>: days after which the records are removed, <code>0</code> keeps them (default: 30)
+ * </ul>
+ */
+@ApplicationScoped
+public class PushJobRecorder {
+
+    private static final long FLUSH_INTERVAL_MILLIS = Long.getLong("aerogear.unifiedpush.jobs.flushInterval", 1000);
+    private static final int MAX_PENDING = Integer.getInteger("aerogear.unifiedpush.jobs.maxPending", 10000);
+    private static final int RETENTION_DAYS = Integer.getInteger("aerogear.unifiedpush.jobs.retentionDays", 30);
+    private static final long PURGE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private final Logger logger = Logger.getLogger(PushJobRecorder.class.getName());
+
+    private final Queue<PushMessageInformation> pendingJobs = new ConcurrentLinkedQueue<PushMessageInformation>();
+    private final Queue<VariantDeliveryResult> pendingResults = new ConcurrentLinkedQueue<VariantDeliveryResult>();
+    private final AtomicInteger pendingResultCount = new AtomicInteger();
+
+    @Inject
+    private PushJobService pushJobService;
+
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void startFlusher() {
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "unifiedpush-job-recorder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (RETENTION_DAYS > 0) {
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    purge();
+                }
+            }, PURGE_INTERVAL_MILLIS, PURGE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stopFlusher() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // write what is left:
+        flush();
+    }
+
+    /**
+     * Records a newly submitted job. Job records are never dropped: there is one per accepted send request.
+     */
+    public void jobSubmitted(PushMessageInformation job) {
+        pendingJobs.add(job);
+    }
+
+    /**
+     * Records the outcome of a job, for one of its variants.
+     */
+    public void variantCompleted(VariantDeliveryResult result) {
+        if (pendingResultCount.incrementAndGet() > MAX_PENDING) {
+            pendingResultCount.decrementAndGet();
+            logger.warning("Too many push job records waiting to be stored, dropping the result of job " + result.getJobID()
+                    + " for variant " + result.getVariantID());
+            return;
+        }
+        pendingResults.add(result);
+    }
+
+    /**
+     * Appends all pending records to the database.
+     */
+    void flush() {
+        final List<PushMessageInformation> jobs = drain(pendingJobs);
+        final List<VariantDeliveryResult> results = drain(pendingResults);
+        pendingResultCount.addAndGet(-results.size());
+        if (jobs.isEmpty() && results.isEmpty()) {
+            return;
+        }
+
+        try {
+            pushJobService.addRecords(jobs, results);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, String.format("Could not store %d push job records", jobs.size() + results.size()), e);
+        }
+    }
+
+    /**
+     * Removes the records that are older than the retention period.
+     */
+    void purge() {
+        try {
+            final int removed = pushJobService.removeRecordsOlderThan(
+                    new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(RETENTION_DAYS)));
+            logger.fine(String.format("Removed %d push job records older than %d days", removed, RETENTION_DAYS));
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Could not remove the expired push job records", e);
+        }
+    }
+
+    private <T> List<T> drain(Queue<T> queue) {
+        final List<T> records = new ArrayList<T>();
+        T record;
+        while ((record = queue.poll()) != null) {
+            records.add(record);
+        }
+        return records;
+    }
+}
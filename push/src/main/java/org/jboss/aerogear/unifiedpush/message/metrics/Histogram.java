@@ -0,0 +1,111 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of recorded values over a fixed set of buckets. Recording is lock-free and the memory used
+ * is constant, so the percentiles are approximations: they report the upper bound of the matching bucket.
+ */
+public class Histogram {
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private final long[] bounds;
+    private final AtomicLongArray buckets;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param bounds the inclusive upper bounds of the buckets, in ascending order. Larger values
+     * are counted in an additional overflow bucket.
+     */
+    public Histogram(long... bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(long value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns count, sum, max, mean, the approximated percentiles and the count per bucket.
+     */
+    public Map<String, Object> snapshot() {
+        final long[] bucketCounts = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            bucketCounts[i] = buckets.get(i);
+            total += bucketCounts[i];
+        }
+        final long currentMax = max.get();
+
+        final Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("count", total);
+        snapshot.put("sum", sum.get());
+        snapshot.put("max", currentMax);
+        snapshot.put("mean", total == 0 ? 0 : sum.get() / total);
+        for (double percentile : PERCENTILES) {
+            snapshot.put("p" + Math.round(percentile * 100), percentile(bucketCounts, total, percentile, currentMax));
+        }
+
+        final Map<String, Long> bucketSnapshot = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < bounds.length; i++) {
+            bucketSnapshot.put(String.valueOf(bounds[i]), bucketCounts[i]);
+        }
+        bucketSnapshot.put("+Inf", bucketCounts[bounds.length]);
+        snapshot.put("buckets", bucketSnapshot);
+
+        return snapshot;
+    }
+
+    private long percentile(long[] bucketCounts, long total, double percentile, long currentMax) {
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(percentile * total);
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += bucketCounts[i];
+            if (cumulative >= rank) {
+                return Math.min(bounds[i], currentMax);
+            }
+        }
+        return currentMax;
+    }
+}
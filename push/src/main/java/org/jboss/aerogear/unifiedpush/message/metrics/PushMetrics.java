@@ -0,0 +1,131 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+
+/**
+ * In-memory counters and histograms of the send pipeline, from accepting a message over resolving the tokens
+ * of each variant to the delivery to the push networks. The values are kept since the start of the server.
+ */
+@ApplicationScoped
+public class PushMetrics {
+
+    private static final long[] LATENCY_BOUNDS_MILLIS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+    private static final long[] BATCH_SIZE_BOUNDS = {1, 10, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final Counter messagesAccepted = new Counter();
+    private final Map<VariantType, NetworkMetrics> networks = new EnumMap<VariantType, NetworkMetrics>(VariantType.class);
+
+    public PushMetrics() {
+        for (VariantType type : VariantType.values()) {
+            networks.put(type, new NetworkMetrics());
+        }
+    }
+
+    /**
+     * A send request has been accepted by the server.
+     */
+    public void messageAccepted() {
+        messagesAccepted.increment();
+    }
+
+    /**
+     * A batch of tokens has been loaded for a variant of the given push network. The tokens are only counted
+     * per network, not per variant, which would keep a counter for every variant ever sent to.
+     */
+    public void tokensResolved(VariantType network, int count) {
+        final NetworkMetrics metrics = networks.get(network);
+        metrics.tokensResolved.increment(count);
+        metrics.batchSize.record(count);
+    }
+
+    /**
+     * A batch has been handed over to the given push network, which took since the given {@link System#nanoTime()}.
+     */
+    public void batchDelivered(VariantType network, long startNanos) {
+        networks.get(network).sendLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    public void sendFailed(VariantType network, String errorCode) {
+        sendFailed(network, errorCode, 1);
+    }
+
+    /**
+     * The given number of tokens (or requests) have not been accepted by the push network, for the given reason
+     * (e.g. a HTTP status code, a GCM error code or the name of an exception).
+     */
+    public void sendFailed(VariantType network, String errorCode, int count) {
+        Counter.forKey(networks.get(network).failures, errorCode).increment(count);
+    }
+
+    /**
+     * The given number of invalid tokens, reported by the push network, are removed.
+     */
+    public void invalidTokensPruned(VariantType network, int count) {
+        networks.get(network).invalidTokensPruned.increment(count);
+    }
+
+    /**
+     * Returns the current values, grouped by push network.
+     */
+    public Map<String, Object> snapshot() {
+        final Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("messagesAccepted", messagesAccepted.getCount());
+
+        final Map<String, Object> networkSnapshots = new LinkedHashMap<String, Object>();
+        for (Map.Entry<VariantType, NetworkMetrics> entry : networks.entrySet()) {
+            final NetworkMetrics metrics = entry.getValue();
+            final Map<String, Object> networkSnapshot = new LinkedHashMap<String, Object>();
+            networkSnapshot.put("tokensResolved", metrics.tokensResolved.getCount());
+            networkSnapshot.put("sendLatencyMillis", metrics.sendLatency.snapshot());
+            networkSnapshot.put("batchSize", metrics.batchSize.snapshot());
+            networkSnapshot.put("failures", counts(metrics.failures));
+            networkSnapshot.put("invalidTokensPruned", metrics.invalidTokensPruned.getCount());
+            networkSnapshots.put(entry.getKey().getTypeName(), networkSnapshot);
+        }
+        snapshot.put("networks", networkSnapshots);
+
+        return snapshot;
+    }
+
+    private static Map<String, Long> counts(Map<String, Counter> counters) {
+        final Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().getCount());
+        }
+        return counts;
+    }
+
+    private static final class NetworkMetrics {
+        private final Counter tokensResolved = new Counter();
+        private final Histogram sendLatency = new Histogram(LATENCY_BOUNDS_MILLIS);
+        private final Histogram batchSize = new Histogram(BATCH_SIZE_BOUNDS);
+        private final ConcurrentMap<String, Counter> failures = new ConcurrentHashMap<String, Counter>();
+        private final Counter invalidTokensPruned = new Counter();
+    }
+}
@@ -18,29 +18,60 @@ package org.jboss.aerogear.unifiedpush.message.sender;
 
 import com.notnoop.apns.APNS;
 import com.notnoop.apns.ApnsService;
-import com.notnoop.apns.ApnsServiceBuilder;
 import com.notnoop.apns.EnhancedApnsNotification;
 import com.notnoop.apns.PayloadBuilder;
+import com.notnoop.exceptions.NetworkIOException;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
 import org.jboss.aerogear.unifiedpush.api.iOSVariant;
-import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
+import org.jboss.aerogear.unifiedpush.message.cache.APNsCache;
+import org.jboss.aerogear.unifiedpush.message.feedback.APNsFeedbackPoller;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+import org.jboss.aerogear.unifiedpush.message.PayloadCompiler;
 import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
 
 import javax.inject.Inject;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class APNsPushNotificationSender {
 
+    /**
+     * Builds the JSON payload for APNs.
+     */
+    private static final PayloadCompiler<String> APNS_PAYLOAD = new PayloadCompiler<String>() {
+        @Override
+        public String compile(UnifiedPushMessage pushMessage) {
+            PayloadBuilder builder = APNS.newPayload()
+                    // adding recognized key values
+                    .alertBody(pushMessage.getAlert()) // alert dialog, in iOS
+                    .badge(pushMessage.getBadge()) // little badge icon update;
+                    .sound(pushMessage.getSound()); // sound to be played by app
+
+            // apply the 'content-available:1' value:
+            if (pushMessage.isContentAvailable()) {
+                // content-available:1 is (with iOS7) not only used
+                // Newsstand, however 'notnoop' names it this way (legacy)...
+                builder = builder.forNewsstand();
+            }
+
+            builder = builder.customFields(pushMessage.getData()); // adding other (submitted) fields
+
+            return builder.build(); // build the JSON payload, for APNs
+        }
+    };
+
     private final Logger logger = Logger.getLogger(APNsPushNotificationSender.class.getName());
 
     @Inject
-    private ClientInstallationService clientInstallationService;
+    private APNsFeedbackPoller feedbackPoller;
+
+    @Inject
+    private APNsCache apnsCache;
+
+    @Inject
+    private PushMetrics metrics;
 
     /**
      * Sends APNs notifications ({@link UnifiedPushMessage}) to all devices, that are represented by 
@@ -49,59 +80,60 @@ public class APNsPushNotificationSender {
      * @param iOSVariant the logical construct, needed to lookup the certificate and the passphrase.
      * @param tokens collection of tokens, representing actual iOS devices
      * @param pushMessage the payload to be submitted
+     * @return the number of tokens that have been handed over to APNs
+     * @throws PermanentDeliveryException if the variant has no valid certificate
      */
-    public void sendPushMessage(iOSVariant iOSVariant, Collection<String> tokens, UnifiedPushMessage pushMessage) {
+    public int sendPushMessage(iOSVariant iOSVariant, Collection<String> tokens, UnifiedPushMessage pushMessage) {
         // no need to send empty list
         if (tokens.isEmpty()) {
-            return;
+            return 0;
         }
 
-        PayloadBuilder builder = APNS.newPayload()
-                // adding recognized key values
-                .alertBody(pushMessage.getAlert()) // alert dialog, in iOS
-                .badge(pushMessage.getBadge()) // little badge icon update;
-                .sound(pushMessage.getSound()); // sound to be played by app
-
-                // apply the 'content-available:1' value:
-                if (pushMessage.isContentAvailable()) {
-                    // content-available:1 is (with iOS7) not only used
-                    // Newsstand, however 'notnoop' names it this way (legacy)...
-                    builder = builder.forNewsstand();
-                }
-
-                builder = builder.customFields(pushMessage.getData()); // adding other (submitted) fields
-
-        final String apnsMessage  =  builder.build(); // build the JSON payload, for APNs
-
-        ApnsService service = buildApnsService(iOSVariant);
-
-        if (service != null) {
-            try {
-                logger.fine(String.format("Sending transformed APNs payload: '%s' ", apnsMessage));
-                // send:
-                service.start();
-
-                Date expireDate = createFutureDateBasedOnTTL(pushMessage.getTimeToLive());
-                service.push(tokens, apnsMessage, expireDate);
-
-                // after sending, let's ask for the inactive tokens:
-                final Set<String> inactiveTokens = service.getInactiveDevices().keySet();
-
-                // transform the tokens to be all lower-case:
-                final Set<String> transformedTokens = lowerCaseAllTokens(inactiveTokens);
-
-                // trigger asynchronous deletion:
-                clientInstallationService.removeInstallationsForVariantByDeviceTokens(iOSVariant.getVariantID(), transformedTokens);
-            } catch (RuntimeException e) {
-                logger.log(Level.SEVERE, "Error sending messages to APN server", e);
-            } finally {
+        // the JSON payload is built once per message, and shared by all iOS variants:
+        final String apnsMessage = pushMessage.getCompiledPayload(VariantType.IOS, APNS_PAYLOAD);
+
+        final ApnsService service;
+        try {
+            // parses the certificate, unless the variant's connection is pooled already:
+            service = apnsCache.getApnsServiceForVariant(iOSVariant);
+        } catch (RuntimeException e) {
+            // e.g. an invalid certificate or passphrase: every other batch of the variant would fail the same way
+            metrics.sendFailed(VariantType.IOS, "InvalidCertificate", tokens.size());
+            throw new PermanentDeliveryException("Invalid certificate of variant " + iOSVariant.getVariantID(), e);
+        }
+        if (service == null) {
+            metrics.sendFailed(VariantType.IOS, "NoCertificate", tokens.size());
+            throw new PermanentDeliveryException("No certificate was found. Could not send messages to APNs");
+        }
 
-                // tear down and release resources:
-                service.stop();
-            }
-        } else {
-            logger.severe("No certificate was found. Could not send messages to APNs");
+        try {
+            logger.fine(String.format("Sending transformed APNs payload: '%s' ", apnsMessage));
+            // send, using the pooled connection:
+            Date expireDate = createFutureDateBasedOnTTL(pushMessage.getTimeToLive());
+            service.push(tokens, apnsMessage, expireDate);
+
+            // the inactive tokens are fetched later, off the send path:
+            feedbackPoller.variantSent(iOSVariant);
+
+            return tokens.size();
+        } catch (NetworkIOException e) {
+            // not rethrown: the library already retried, and part of the tokens has been written to the socket,
+            // so sending the batch again would notify those devices twice
+            logger.log(Level.WARNING, "Connection to APN server failed", e);
+            metrics.sendFailed(VariantType.IOS, e.getClass().getSimpleName(), tokens.size());
+
+            // the next send establishes a fresh connection:
+            apnsCache.evict(iOSVariant, service);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Error sending messages to APN server", e);
+            metrics.sendFailed(VariantType.IOS, e.getClass().getSimpleName(), tokens.size());
+
+            // the connection might be broken, next send will establish a fresh one:
+            apnsCache.evict(iOSVariant, service);
+        } finally {
+            apnsCache.release(service);
         }
+        return 0;
     }
 
     /**
@@ -118,52 +150,4 @@ public class APNsPushNotificationSender {
             return new Date(System.currentTimeMillis() + ttl);
         }
     }
-
-    /**
-     * The Java-APNs lib returns the tokens in UPPERCASE format, however, the iOS Devices submit the token in
-     * LOWER CASE format. This helper method performs a transformation
-     */
-    private Set<String> lowerCaseAllTokens(Set<String> inactiveTokens) {
-        final Set<String> lowerCaseTokens = new HashSet<String>();
-        for (String token : inactiveTokens) {
-            lowerCaseTokens.add(token.toLowerCase());
-        }
-        return lowerCaseTokens;
-    }
-
-    /**
-     * Returns the ApnsService, based on the required profile (production VS sandbox/test).
-     * Null is returned if there is no "configuration" for the request stage 
-     */
-    private ApnsService buildApnsService(iOSVariant iOSVariant) {
-
-        // this check should not be needed, but you never know:
-        if (iOSVariant.getCertificate() != null && iOSVariant.getPassphrase() != null) {
-
-            final ApnsServiceBuilder builder = APNS.newService();
-
-            // add the certificate:
-            ByteArrayInputStream stream = new ByteArrayInputStream(iOSVariant.getCertificate());
-            builder.withCert(stream, iOSVariant.getPassphrase());
-
-            try {
-                // release the stream
-                stream.close();
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Error reading certificate", e);
-            }
-
-            // pick the destination:
-            if (iOSVariant.isProduction()) {
-                builder.withProductionDestination();
-            } else {
-                builder.withSandboxDestination();
-            }
-
-            // create the service
-            return builder.build();
-        }
-        // null if, why ever, there was no cert/passphrase
-        return null;
-    }
-}
\ No newline at end of file
+}
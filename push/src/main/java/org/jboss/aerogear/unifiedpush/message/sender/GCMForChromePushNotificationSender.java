@@ -1,4 +1,3 @@
-package org.jboss.aerogear.unifiedpush.message.sender;
 /**
  * JBoss, Home of Professional Open Source
  * Copyright Red Hat, Inc., and individual contributors.
@@ -15,9 +14,15 @@ package org.jboss.aerogear.unifiedpush.message.sender;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+package org.jboss.aerogear.unifiedpush.message.sender;
 
 import org.jboss.aerogear.unifiedpush.api.ChromePackagedAppVariant;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.message.cache.ChromeAccessTokenCache;
+import org.jboss.aerogear.unifiedpush.message.helper.ChromeMessageTemplate;
 import org.jboss.aerogear.unifiedpush.message.helper.ChromePackagedAppTokenCache;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+import org.jboss.aerogear.unifiedpush.message.PayloadCompiler;
 import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -32,67 +37,137 @@ import java.io.Serializable;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Level;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Sends messages to GCM for Chrome. The number of concurrent requests can be configured with the
+ * <code>aerogear.unifiedpush.chrome.maxInFlight</code> system property (default: 50).
+ */
+@ApplicationScoped
 public class GCMForChromePushNotificationSender implements Serializable {
+    private static final long serialVersionUID = -4527183297640180416L;
 
     private static final Charset UTF_8 = Charset.forName("UTF-8");
     private static final String MESSAGE_URL = "https://www.googleapis.com/gcm_for_chrome/v1/messages";
     private static final String ACCESS_TOKEN_URL = "https://accounts.google.com/o/oauth2/token";
 
-    private final Logger logger = Logger.getLogger(GCMForChromePushNotificationSender.class.getName());
+    // the endpoints can be pointed to a different (e.g. mock) server for load testing
+    private final String messageURL = System.getProperty("aerogear.unifiedpush.chrome.messageUrl", MESSAGE_URL);
+    private final String accessTokenURL = System.getProperty("aerogear.unifiedpush.chrome.accessTokenUrl", ACCESS_TOKEN_URL);
+
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("aerogear.unifiedpush.chrome.maxInFlight", 50);
+
+    // bounds of the access token cache: number of applications and seconds before expiry when a token gets refreshed
+    private static final int TOKEN_CACHE_SIZE = Integer.getInteger("aerogear.unifiedpush.chrome.tokenCacheSize", 1000);
+    private static final long TOKEN_REFRESH_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("aerogear.unifiedpush.chrome.tokenRefreshMargin", 60));
+
+    /**
+     * Encodes the alert once, so that only the channelID is written per request.
+     */
+    private static final PayloadCompiler<ChromeMessageTemplate> CHROME_PAYLOAD = new PayloadCompiler<ChromeMessageTemplate>() {
+        @Override
+        public ChromeMessageTemplate compile(UnifiedPushMessage unifiedPushMessage) {
+            return new ChromeMessageTemplate(unifiedPushMessage.getAlert());
+        }
+    };
+
+    private static final Logger logger = Logger.getLogger(GCMForChromePushNotificationSender.class.getName());
 
     // We need a place to hold the current access token/expire time for each GCM for Chrome application. Not good practice to always get a new access token
-    private Map<String, ChromePackagedAppTokenCache> accessTokenMap = new HashMap<String, ChromePackagedAppTokenCache>();
+    private transient ChromeAccessTokenCache accessTokenCache;
+
+    private transient HttpDeliveryPool deliveryPool;
+
+    @Inject
+    private PushMetrics metrics;
 
-    public void sendMessage( ChromePackagedAppVariant chromePackagedAppVariant, List<String> channelIDs, UnifiedPushMessage unifiedPushMessage) {
+    @PostConstruct
+    public void startDeliveryPool() {
+        accessTokenCache = new ChromeAccessTokenCache(TOKEN_CACHE_SIZE, TOKEN_REFRESH_MARGIN_MILLIS);
+        deliveryPool = new HttpDeliveryPool("chrome", MAX_IN_FLIGHT);
+    }
+
+    @PreDestroy
+    public void stopDeliveryPool() {
+        deliveryPool.shutdown();
+    }
+
+    /**
+     * Sends the alert of the given message to all channelIDs of the given variant. The requests for the different
+     * channels are executed concurrently, over kept-alive connections.
+     *
+     * @return the number of channelIDs that have been accepted by GCM for Chrome
+     * @throws IllegalStateException if no access token could be obtained, the batch can be retried later
+     */
+    public int sendMessage( ChromePackagedAppVariant chromePackagedAppVariant, List<String> channelIDs, UnifiedPushMessage unifiedPushMessage) {
         // no need to send empty list
         if(channelIDs.isEmpty()) {
-            return;
+            return 0;
         }
 
-        String accessToken = fetchAccessToken(chromePackagedAppVariant);
-
-        // iterate over all the given channelIDs
-        for (String channelID : channelIDs) {
-
-            HttpURLConnection conn = null;
-            try {
-                final String clientURL = MESSAGE_URL;
-                // POST the payload to the GCM For Chrome server
-                conn = post(clientURL, "{'channelId': '" + channelID + "', 'subchannelId': '0', 'payload': '" + unifiedPushMessage.getAlert() + "'}", accessToken);
-                int chromePackagedAppStatusCode = conn.getResponseCode();
-                logger.info("GCM for Chrome Status: " + chromePackagedAppStatusCode);
+        final String accessToken = fetchAccessToken(chromePackagedAppVariant);
+        if (accessToken == null) {
+            // without a token, every request would be rejected (and the next token invalidated) with a 401:
+            metrics.sendFailed(VariantType.CHROME_PACKAGED_APP, "NoAccessToken", channelIDs.size());
+            throw new IllegalStateException("Could not get an access token for client " + chromePackagedAppVariant.getClientId());
+        }
+        final ChromeMessageTemplate template = unifiedPushMessage.getCompiledPayload(VariantType.CHROME_PACKAGED_APP, CHROME_PAYLOAD);
 
-                if (chromePackagedAppStatusCode >= 400) {
-                    logger.severe("ERROR ??????     STATUS CODE, from GCM for Chrome was NOT 2XX, but....: " + chromePackagedAppStatusCode);
-                }
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Error during Post execution to GCM for Chrome Network", e);
-            } finally {
-                // tear down
-                if (conn != null ) {
-                    conn.disconnect();
+        // POST the payload to the GCM For Chrome server, for all the channels:
+        final Map<Integer, Integer> statusCodes = deliveryPool.deliver(channelIDs, new HttpDeliveryPool.HttpRequest() {
+            @Override
+            public int execute(String channelID) throws IOException {
+                final HttpURLConnection conn = post(messageURL, template.bodyFor(channelID), accessToken);
+                try {
+                    return conn.getResponseCode();
+                } finally {
+                    // no disconnect, the connection is kept alive for the next request:
+                    HttpDeliveryPool.release(conn);
                 }
             }
+        });
+
+        int accepted = 0;
+        for (Map.Entry<Integer, Integer> statusCode : statusCodes.entrySet()) {
+            if (statusCode.getKey() != HttpDeliveryPool.IO_ERROR && statusCode.getKey() < 400) {
+                accepted += statusCode.getValue();
+                continue;
+            }
+            final String errorCode = statusCode.getKey() == HttpDeliveryPool.IO_ERROR ? "IOException" : String.valueOf(statusCode.getKey());
+            metrics.sendFailed(VariantType.CHROME_PACKAGED_APP, errorCode, statusCode.getValue());
         }
+
+        if (statusCodes.containsKey(HttpURLConnection.HTTP_UNAUTHORIZED)) {
+            // the token has been revoked, the next send gets a new one
+            accessTokenCache.invalidate(chromePackagedAppVariant.getClientId());
+        }
+
+        if (accepted < channelIDs.size()) {
+            logger.severe(String.format("STATUS CODE, from GCM for Chrome was NOT 2XX for %d of %d channels, status codes (-1 for I/O errors): %s",
+                    channelIDs.size() - accepted, channelIDs.size(), statusCodes));
+        } else {
+            logger.fine(String.format("GCM for Chrome Status: %d channels accepted", accepted));
+        }
+        return accepted;
     }
 
     /**
      * Returns HttpURLConnection that 'posts' the given body to the given URL.
      */
-    protected HttpURLConnection post(String url, String body, String accessToken) throws IOException {
+    protected HttpURLConnection post(String url, byte[] bytes, String accessToken) throws IOException {
 
-        if (url == null || body == null) {
+        if (url == null || bytes == null) {
             throw new IllegalArgumentException("arguments cannot be null");
         }
 
-        byte[] bytes = body.getBytes(UTF_8);
         HttpURLConnection conn = getConnection(url);
         conn.setDoOutput(true);
         conn.setUseCaches(false);
@@ -119,7 +194,7 @@ public class GCMForChromePushNotificationSender implements Serializable {
         String body = "client_secret="+chromePackagedAppVariant.getClientSecret()+"&grant_type=refresh_token&refresh_token="+chromePackagedAppVariant.getRefreshToken()+"&client_id="+chromePackagedAppVariant.getClientId();
 
         byte[] bytes = body.getBytes(UTF_8);
-        HttpURLConnection conn = getConnection(ACCESS_TOKEN_URL);
+        HttpURLConnection conn = getConnection(accessTokenURL);
         conn.setDoOutput(true);
         conn.setUseCaches(false);
         conn.setFixedLengthStreamingMode(bytes.length);
@@ -142,56 +217,36 @@ public class GCMForChromePushNotificationSender implements Serializable {
     /**
      *
      * @param chromePackagedAppVariant
-     * @return a valid access token
+     * @return a valid access token, or <code>null</code> if none could be obtained
      */
+    protected String fetchAccessToken(final ChromePackagedAppVariant chromePackagedAppVariant) {
+        return accessTokenCache.getAccessToken(chromePackagedAppVariant.getClientId(), new ChromeAccessTokenCache.TokenRefresher() {
+            @Override
+            public ChromePackagedAppTokenCache refresh() throws IOException, ParseException {
+                return requestAccessToken(chromePackagedAppVariant);
+            }
+        });
+    }
 
-    protected String fetchAccessToken(ChromePackagedAppVariant chromePackagedAppVariant) {
+    private ChromePackagedAppTokenCache requestAccessToken(ChromePackagedAppVariant chromePackagedAppVariant) throws IOException, ParseException {
         HttpURLConnection accessTokenConn = null;
-        JSONParser jsonParser = new JSONParser();
-        ChromePackagedAppTokenCache accessTokenObject = null;
-        String accessToken = null;
-        long expireTime = 0; // in milliseconds
-
         try {
-            // Not good practice to always get a new access token. so only get one if it is expired or null
-            accessTokenObject = accessTokenMap.get(chromePackagedAppVariant.getClientId());
-
-            if( accessTokenObject != null ) {
-                accessToken = accessTokenObject.getAccessToken();
-                expireTime = accessTokenObject.getExpiresIn();
-            }
-
-            if( accessToken == null || expireTime < new Date().getTime() ) {
-                accessTokenConn = refreshAccessToken(chromePackagedAppVariant);
-                String stringResponse = getString(accessTokenConn.getInputStream());
-                accessToken = ((JSONObject)jsonParser.parse(stringResponse)).get("access_token").toString();
-                String expiresIn = ((JSONObject)jsonParser.parse(stringResponse)).get("expires_in").toString();
+            accessTokenConn = refreshAccessToken(chromePackagedAppVariant);
+            final JSONObject response = (JSONObject) new JSONParser().parse(getString(accessTokenConn.getInputStream()));
 
-                // Convert to millis
-                long ex = Long.parseLong( expiresIn );
-                expireTime = new Date().getTime() + (ex * 1000);
+            // Convert to millis
+            final long expiresIn = Long.parseLong(response.get("expires_in").toString());
 
-                if( accessTokenObject == null ) {
-                    accessTokenObject = new ChromePackagedAppTokenCache();
-                }
-
-                accessTokenObject.setAccessToken(accessToken);
-                accessTokenObject.setExpiresIn(expireTime);
-
-                accessTokenMap.put(chromePackagedAppVariant.getClientId(),accessTokenObject);
-            }
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Error during Post execution to GCM for Chrome Network For access token refresh", e);
-        } catch (ParseException e) {
-            logger.log(Level.SEVERE, "Error during Parse of Response ", e);
+            final ChromePackagedAppTokenCache accessTokenObject = new ChromePackagedAppTokenCache();
+            accessTokenObject.setAccessToken(response.get("access_token").toString());
+            accessTokenObject.setExpiresIn(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresIn));
+            return accessTokenObject;
         } finally {
             // tear down
             if (accessTokenConn != null ) {
                 accessTokenConn.disconnect();
             }
         }
-
-        return accessToken;
     }
 
     /**
@@ -17,34 +17,134 @@
 package org.jboss.aerogear.unifiedpush.message.sender;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
 import org.jboss.aerogear.unifiedpush.api.AndroidVariant;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
 import org.jboss.aerogear.unifiedpush.message.cache.GCMCache;
+import org.jboss.aerogear.unifiedpush.message.dispatch.Backoff;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
 import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
 
 import com.google.android.gcm.server.Constants;
+import com.google.android.gcm.server.InvalidRequestException;
 import com.google.android.gcm.server.Message;
 import com.google.android.gcm.server.MulticastResult;
 import com.google.android.gcm.server.Result;
-import com.google.android.gcm.server.Sender;
 import com.google.android.gcm.server.Message.Builder;
+import org.jboss.aerogear.unifiedpush.message.PayloadCompiler;
 import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
 
+@ApplicationScoped
 public class GCMPushNotificationSender {
 
+    /**
+     * Maximum number of registration IDs, accepted by GCM for one multicast request.
+     */
+    private static final int MULTICAST_SIZE = 1000;
+
+    /**
+     * Number of multicast requests that are sent concurrently, configured with the
+     * <code>aerogear.unifiedpush.gcm.parallelism</code> system property.
+     */
+    private static final int PARALLELISM = Integer.getInteger("aerogear.unifiedpush.gcm.parallelism", 4);
+
+    /**
+     * Builds the (immutable) GCM message.
+     */
+    private static final PayloadCompiler<Message> GCM_PAYLOAD = new PayloadCompiler<Message>() {
+        @Override
+        public Message compile(UnifiedPushMessage pushMessage) {
+            // payload builder:
+            Builder gcmBuilder = new Message.Builder();
+
+            // add the "recognized" keys...
+            gcmBuilder.addData("alert", pushMessage.getAlert());
+            gcmBuilder.addData("sound", pushMessage.getSound());
+            gcmBuilder.addData("badge", "" + pushMessage.getBadge());
+
+            // if present, apply the time-to-live metadata:
+            int ttl = pushMessage.getTimeToLive();
+            if (ttl != -1) {
+                gcmBuilder.timeToLive(ttl);
+            }
+
+            // iterate over the missing keys:
+            Set<String> keys = pushMessage.getData().keySet();
+            for (String key : keys) {
+                // GCM needs stringified values:
+                gcmBuilder.addData(key, "" + pushMessage.getData().get(key));
+            }
+
+            return gcmBuilder.build();
+        }
+    };
+
     private final GCMCache cache = new GCMCache();
 
+    private ExecutorService chunkExecutor;
+
+    // holds back the retries of failed registration IDs, until they are due:
+    private ScheduledExecutorService retryScheduler;
+
     @Inject
     private ClientInstallationService clientInstallationService;
 
+    @Inject
+    private PushMetrics metrics;
+
     private final Logger logger = Logger.getLogger(GCMPushNotificationSender.class.getName());
 
+    @PostConstruct
+    public void startExecutors() {
+        chunkExecutor = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "unifiedpush-gcm-multicast-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "unifiedpush-gcm-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stopExecutors() {
+        retryScheduler.shutdownNow();
+        chunkExecutor.shutdown();
+    }
+
     /**
      * Sends GCM notifications ({@link UnifiedPushMessage}) to all devices, that are represented by 
      * the {@link List} of tokens for the given {@link AndroidVariant}.
@@ -52,94 +152,210 @@ public class GCMPushNotificationSender {
      * @param androidVariant The android variant entity
      * @param registrationIDs List of tokens, representing actual Android devices
      * @param pushMessage the payload to be submitted
+     * @return the number of registration IDs that have been accepted by GCM
      */
-    public void sendPushMessage(AndroidVariant androidVariant, List<String> registrationIDs, UnifiedPushMessage pushMessage) {
+    public int sendPushMessage(AndroidVariant androidVariant, List<String> registrationIDs, UnifiedPushMessage pushMessage) {
 
         // no need to send empty list
         if (registrationIDs.isEmpty()) {
-            return;
+            return 0;
         }
 
-        // payload builder:
-        Builder gcmBuilder = new Message.Builder();
+        // the GCM message is built once per message, and shared by all Android variants:
+        final Message gcmMessage = pushMessage.getCompiledPayload(VariantType.ANDROID, GCM_PAYLOAD);
+        logger.fine(String.format("Sending transformed GCM payload: '%s' ", gcmMessage));
 
-        // add the "recognized" keys...
-        gcmBuilder.addData("alert", pushMessage.getAlert());
-        gcmBuilder.addData("sound", pushMessage.getSound());
-        gcmBuilder.addData("badge", "" + pushMessage.getBadge());
+        final GCMSender sender;
+        try {
+            sender = cache.getSenderForAPIKey(androidVariant.getGoogleKey());
+        } catch (IllegalArgumentException e) {
+            logger.severe("Error connection to your GCM project. Double check your Google API Key");
+            metrics.sendFailed(VariantType.ANDROID, "InvalidApiKey", registrationIDs.size());
+            return 0;
+        }
 
-        // if present, apply the time-to-live metadata:
-        int ttl = pushMessage.getTimeToLive();
-        if (ttl != -1) {
-            gcmBuilder.timeToLive(ttl);
+        final String variantID = androidVariant.getVariantID();
+
+        // a single multicast request is good enough, no need to bother the executor:
+        if (registrationIDs.size() <= MULTICAST_SIZE) {
+            return sendMulticast(variantID, sender, gcmMessage, registrationIDs);
+        }
+
+        // GCM only accepts 1000 registration IDs per request, so we split them up and send the chunks concurrently:
+        final List<Future<Integer>> pendingChunks = new ArrayList<Future<Integer>>();
+        for (int fromIndex = 0; fromIndex < registrationIDs.size(); fromIndex += MULTICAST_SIZE) {
+            final int toIndex = Math.min(fromIndex + MULTICAST_SIZE, registrationIDs.size());
+            final List<String> chunk = new ArrayList<String>(registrationIDs.subList(fromIndex, toIndex));
+
+            pendingChunks.add(chunkExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return sendMulticast(variantID, sender, gcmMessage, chunk);
+                }
+            }));
         }
 
-        // iterate over the missing keys:
-        Set<String> keys = pushMessage.getData().keySet();
-        for (String key : keys) {
-            // GCM needs stringified values:
-            gcmBuilder.addData(key, "" + pushMessage.getData().get(key));
+        // the variant is done, once all of its chunks are delivered:
+        int accepted = 0;
+        for (Future<Integer> pendingChunk : pendingChunks) {
+            try {
+                accepted += pendingChunk.get();
+            } catch (ExecutionException e) {
+                logger.log(Level.SEVERE, "Error sending messages to GCM server", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
         }
+        return accepted;
+    }
 
-        Message gcmMessage = gcmBuilder.build();
+    /**
+     * Sends one multicast request (of at most 1000 registration IDs) and triggers the cleanup of the invalid ones.
+     *
+     * @return the number of registration IDs that have been accepted by GCM
+     */
+    private int sendMulticast(String variantID, GCMSender sender, Message gcmMessage, List<String> registrationIDs) {
+        return sendMulticast(variantID, sender, gcmMessage, registrationIDs, 0);
+    }
 
-        // send it out.....
+    /**
+     * Sends one multicast request, as the given retry (<code>0</code> for the first attempt). The registration IDs
+     * that could not be delivered because GCM was (temporarily) unavailable are retried later.
+     */
+    private int sendMulticast(String variantID, GCMSender sender, Message gcmMessage, List<String> registrationIDs, int retry) {
         try {
-            logger.fine(String.format("Sending transformed GCM payload: '%s' ", gcmMessage));
+            final MulticastResult multicastResult = sender.sendNoRetry(gcmMessage, registrationIDs);
+            final long retryAfterMillis = sender.takeRetryAfterMillis();
 
-            Sender sender = cache.getSenderForAPIKey(androidVariant.getGoogleKey());
-            MulticastResult multicastResult = sender.send(gcmMessage, registrationIDs, 0);
+            if (multicastResult == null) {
+                // the library signals an unavailable service this way:
+                metrics.sendFailed(VariantType.ANDROID, Constants.ERROR_UNAVAILABLE, registrationIDs.size());
+                scheduleRetry(variantID, sender, gcmMessage, registrationIDs, retry + 1, retryAfterMillis);
+                return 0;
+            }
 
             // after sending, let's identify the inactive/invalid registrationIDs and trigger their deletion:
-            cleanupInvalidRegistrationIDsForVariant(androidVariant.getVariantID(), multicastResult, registrationIDs);
+            final List<String> unavailableIDs = cleanupInvalidRegistrationIDsForVariant(variantID, multicastResult, registrationIDs);
+
+            // and retry the ones that GCM could not handle right now:
+            if (!unavailableIDs.isEmpty()) {
+                scheduleRetry(variantID, sender, gcmMessage, unavailableIDs, retry + 1, retryAfterMillis);
+            }
+
+            return multicastResult.getSuccess();
 
         } catch (IOException e) {
             // network related exceptions:
-            logger.warning("Error sending messages to GCM server");
-            e.printStackTrace();
+            final long retryAfterMillis = sender.takeRetryAfterMillis();
+            logger.log(Level.WARNING, "Error sending messages to GCM server", e);
+            metrics.sendFailed(VariantType.ANDROID, e.getClass().getSimpleName(), registrationIDs.size());
+
+            // a rejected request (e.g. 400 or 401) will not get any better:
+            if (!(e instanceof InvalidRequestException) || ((InvalidRequestException) e).getHttpStatusCode() >= 500) {
+                scheduleRetry(variantID, sender, gcmMessage, registrationIDs, retry + 1, retryAfterMillis);
+            }
         } catch (IllegalArgumentException e) {
             logger.severe("Error connection to your GCM project. Double check your Google API Key");
+            metrics.sendFailed(VariantType.ANDROID, "InvalidApiKey", registrationIDs.size());
+        }
+        return 0;
+    }
+
+    /**
+     * Re-sends the given registration IDs once the delay, requested by GCM with its <code>Retry-After</code> header
+     * or given by the (jittered) exponential backoff, has passed. The worker that made the original request is not
+     * held up, the retry runs on the multicast executor.
+     */
+    private void scheduleRetry(final String variantID, final GCMSender sender, final Message gcmMessage,
+                               final List<String> registrationIDs, final int retry, long retryAfterMillis) {
+        if (retry > Backoff.MAX_ATTEMPTS) {
+            logger.warning(String.format("Giving up on %d registration IDs of variant %s after %d retries", registrationIDs.size(), variantID, retry - 1));
+            return;
+        }
+
+        final long delay = Math.max(retryAfterMillis, Backoff.delayMillis(retry));
+        logger.fine(String.format("Retrying %d registration IDs of variant %s in %d ms", registrationIDs.size(), variantID, delay));
+
+        try {
+            retryScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    chunkExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            sendMulticast(variantID, sender, gcmMessage, registrationIDs, retry);
+                        }
+                    });
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            logger.warning(String.format("Dropping the retry of %d registration IDs of variant %s", registrationIDs.size(), variantID));
         }
     }
 
     /**
      * <p>Walks over the {@code MulticastResult} from the GCM call and identifies the <code>index</code> of all {@code Result} objects that
-     * indicate an <code>InvalidRegistration</code> error.
+     * indicate an <code>InvalidRegistration</code> or <code>NotRegistered</code> error, that carry a canonical registration ID,
+     * or that indicate a temporary <code>Unavailable</code> or <code>InternalServerError</code> error.
      * 
      * <p>This <code>index</code> is used to find the matching <code>registration ID</code> in the List of all used <code>registrationIDs</code>.
      * 
-     * <p>Afterwards all 'invalid' registration IDs for the given <code>variantID</code> are being deleted from our database.
+     * <p>Afterwards, in one (asynchronous) call, all 'invalid' registration IDs for the given <code>variantID</code> are being deleted
+     * from our database, and the ones with a canonical ID are being replaced by it.
+     *
+     * <p>Invoked once per multicast chunk, so the <code>index</code> always refers to the chunk that has been submitted.
      * 
      * @param variantID id of the actual {@code AndroidVariantEntity}.
      * @param multicastResult the results from the HTTP request to the Google Cloud.
-     * @param registrationIDs list of all tokens that we submitted to GCM.
+     * @param registrationIDs list of all tokens that we submitted to GCM, with the multicast request.
+     * @return the registration IDs which could not be delivered right now, and should be retried
      */
-    private void cleanupInvalidRegistrationIDsForVariant(String variantID, MulticastResult multicastResult, List<String> registrationIDs) {
+    private List<String> cleanupInvalidRegistrationIDsForVariant(String variantID, MulticastResult multicastResult, List<String> registrationIDs) {
 
         // get the GCM send results for all of the client devices:
         final List<Result> results = multicastResult.getResults();
 
         // storage for all the invalid registration IDs:
         final Set<String> inactiveTokens = new HashSet<String>();
+        final Map<String, String> canonicalTokens = new HashMap<String, String>();
+        final List<String> unavailableTokens = new ArrayList<String>();
 
         // read the results:
         for (int i = 0; i < results.size(); i++) {
             // use the current index to access the individual results
             Result result = results.get(i);
 
+            if (result.getErrorCodeName() != null) {
+                metrics.sendFailed(VariantType.ANDROID, result.getErrorCodeName());
+            }
+
             // is there an error code that indicates an invalid regID ?
-            if (Constants.ERROR_INVALID_REGISTRATION.equals(result.getErrorCodeName())) {
+            if (Constants.ERROR_INVALID_REGISTRATION.equals(result.getErrorCodeName())
+                    || Constants.ERROR_NOT_REGISTERED.equals(result.getErrorCodeName())) {
 
-                // Ok the result at INDEX 'i' was an 'InvalidRegistration'!
+                // Ok the result at INDEX 'i' was an 'InvalidRegistration' (or 'NotRegistered')!
 
                 // Now use the INDEX of the 'InvalidRegistration' result object, and look
                 // for the matching registrationID inside of the List that contains
                 // all the used registration IDs and store it:
                 inactiveTokens.add(registrationIDs.get(i));
+            } else if (result.getCanonicalRegistrationId() != null) {
+                // delivered, but the device has registered again; future sends have to use the new ID:
+                canonicalTokens.put(registrationIDs.get(i), result.getCanonicalRegistrationId());
+            } else if (Constants.ERROR_UNAVAILABLE.equals(result.getErrorCodeName())
+                    || Constants.ERROR_INTERNAL_SERVER_ERROR.equals(result.getErrorCodeName())) {
+                unavailableTokens.add(registrationIDs.get(i));
             }
         }
 
-        // trigger asynchronous deletion:
-        clientInstallationService.removeInstallationsForVariantByDeviceTokens(variantID, inactiveTokens);
+        // trigger asynchronous deletion and update, in one go:
+        if (!inactiveTokens.isEmpty() || !canonicalTokens.isEmpty()) {
+            metrics.invalidTokensPruned(VariantType.ANDROID, inactiveTokens.size());
+            clientInstallationService.reconcileDeviceTokensForVariant(variantID, canonicalTokens, inactiveTokens);
+        }
+
+        return unavailableTokens;
     }
 }
@@ -0,0 +1,72 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+import com.google.android.gcm.server.Constants;
+import com.google.android.gcm.server.Sender;
+
+/**
+ * {@link Sender} that posts to a configurable endpoint, instead of the hard-coded Google one, and that keeps the
+ * <code>Retry-After</code> header of the responses, which the GCM library drops.
+ */
+public class GCMSender extends Sender {
+
+    private final String endpoint;
+
+    // the header of the last response, per thread (the sender is shared by all sends with the same API key):
+    private final ThreadLocal<String> retryAfter = new ThreadLocal<String>();
+
+    public GCMSender(String key, String endpoint) {
+        super(key);
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Returns the delay the GCM server has asked for, with the last response on the calling thread, and forgets it.
+     *
+     * @return the delay in milliseconds, or <code>0</code> if the response had no (valid) <code>Retry-After</code> header
+     */
+    public long takeRetryAfterMillis() {
+        final String value = retryAfter.get();
+        retryAfter.remove();
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            // an HTTP date, which GCM does not use in practice
+            return 0;
+        }
+    }
+
+    @Override
+    protected HttpURLConnection post(String url, String contentType, String body) throws IOException {
+        final HttpURLConnection conn = super.post(url, contentType, body);
+        retryAfter.set(conn.getHeaderField("Retry-After"));
+        return conn;
+    }
+
+    @Override
+    protected HttpURLConnection getConnection(String url) throws IOException {
+        return super.getConnection(Constants.GCM_SEND_ENDPOINT.equals(url) ? endpoint : url);
+    }
+}
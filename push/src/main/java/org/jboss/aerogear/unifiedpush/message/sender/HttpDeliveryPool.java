@@ -0,0 +1,170 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fans out many small HTTP requests (one per push endpoint or channel) over a fixed pool of worker threads,
+ * which bounds the number of requests that are in-flight at the same time.
+ *
+ * <p>
+ * The JDK keeps connections alive per host, as long as every response has been read to its end and the connection
+ * is not disconnected. {@link #release(HttpURLConnection)} takes care of that, so consecutive requests to the same
+ * push server reuse the already established (TLS) connections. The number of idle connections kept per host is
+ * controlled by the <code>http.maxConnections</code> system property of the JDK.
+ */
+public class HttpDeliveryPool {
+
+    /**
+     * Status used in the returned statistics, for requests that failed with an {@link IOException}.
+     */
+    public static final int IO_ERROR = -1;
+
+    private final Logger logger = Logger.getLogger(HttpDeliveryPool.class.getName());
+
+    private final ExecutorService executor;
+
+    /**
+     * @param name the name of the pool, used for naming the worker threads
+     * @param maxInFlight maximum number of concurrent requests
+     */
+    public HttpDeliveryPool(final String name, int maxInFlight) {
+        executor = Executors.newFixedThreadPool(maxInFlight, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "unifiedpush-" + name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Executes the given request for all of the targets and waits until every request has been answered.
+     *
+     * @param targets the endpoint URLs (or channels) that receive a request
+     * @param request performs the actual HTTP request, for one target
+     * @return number of responses per HTTP status code, {@link #IO_ERROR} counts the failed requests
+     */
+    public Map<Integer, Integer> deliver(Collection<String> targets, final HttpRequest request) {
+        final ConcurrentMap<Integer, AtomicInteger> statusCodes = new ConcurrentHashMap<Integer, AtomicInteger>();
+        final CountDownLatch done = new CountDownLatch(targets.size());
+
+        for (final String target : targets) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int statusCode = IO_ERROR;
+                    try {
+                        statusCode = request.execute(target);
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Error during HTTP request to " + target, e);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, "Error during HTTP request to " + target, e);
+                    } finally {
+                        count(statusCodes, statusCode);
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final Map<Integer, Integer> result = new HashMap<Integer, Integer>();
+        for (Map.Entry<Integer, AtomicInteger> entry : statusCodes.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Reads the remaining response (or error) body and closes it, which hands the underlying connection
+     * back to the keep-alive cache of the JDK, instead of tearing it down.
+     */
+    public static void release(HttpURLConnection conn) {
+        InputStream in = null;
+        try {
+            in = conn.getErrorStream();
+            if (in == null) {
+                in = conn.getInputStream();
+            }
+            final byte[] buffer = new byte[512];
+            while (in.read(buffer) != -1) {
+                // drain
+            }
+        } catch (IOException e) {
+            // nothing we can do here, the connection will not be reused
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static void count(ConcurrentMap<Integer, AtomicInteger> statusCodes, int statusCode) {
+        AtomicInteger counter = statusCodes.get(statusCode);
+        if (counter == null) {
+            final AtomicInteger newCounter = new AtomicInteger();
+            counter = statusCodes.putIfAbsent(statusCode, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * A single HTTP request, against one target.
+     */
+    public interface HttpRequest {
+
+        /**
+         * Performs the request and returns the HTTP status code of the response.
+         */
+        int execute(String target) throws IOException;
+    }
+}
@@ -24,18 +24,47 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.List;
-import java.util.logging.Level;
+import java.util.Map;
 import java.util.logging.Logger;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 import javax.ws.rs.core.Response.Status;
 
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+
+/**
+ * Sends the version updates to the SimplePush servers. The PUT requests for the different endpoints are executed
+ * concurrently, over kept-alive connections. The number of concurrent requests can be configured with the
+ * <code>aerogear.unifiedpush.simplepush.maxInFlight</code> system property (default: 50).
+ */
+@ApplicationScoped
 public class SimplePushNotificationSender implements Serializable {
     private static final long serialVersionUID = 5747687132270998712L;
 
     private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("aerogear.unifiedpush.simplepush.maxInFlight", 50);
 
     private final Logger logger = Logger.getLogger(SimplePushNotificationSender.class.getName());
 
+    private transient HttpDeliveryPool deliveryPool;
+
+    @Inject
+    private PushMetrics metrics;
+
+    @PostConstruct
+    public void startDeliveryPool() {
+        deliveryPool = new HttpDeliveryPool("simplepush", MAX_IN_FLIGHT);
+    }
+
+    @PreDestroy
+    public void stopDeliveryPool() {
+        deliveryPool.shutdown();
+    }
+
     /**
      * Sends SimplePush notifications to all connected clients, that are represented by
      * the {@link Collection} of channelIDs, for the given SimplePush network.
@@ -43,31 +72,43 @@ public class SimplePushNotificationSender implements Serializable {
      * @param pushEndpointURLs List of URL used for the different clients/endpoints on a SimplePush network/server.
      *
      * @param payload the payload, or version string, to be submitted
+     * @return the number of endpoints that have accepted the version update
      */
-    public void sendMessage(List<String> pushEndpointURLs, String payload) {
-        // iterate over all the given channels, if there are channels:
-        for (String clientURL : pushEndpointURLs) {
-
-            HttpURLConnection conn = null;
-            try {
-                // PUT the version payload to the SimplePushServer
-                logger.fine(String.format("Sending transformed SimplePush version: '%s' to %s", payload, clientURL));
-                conn = put(clientURL, payload);
-                int simplePushStatusCode = conn.getResponseCode();
-                logger.info("SimplePush Status: " + simplePushStatusCode);
-
-                if (Status.OK.getStatusCode() != simplePushStatusCode) {
-                    logger.severe("ERROR ??????     STATUS CODE, from PUSH NETWORK was NOT 200, but....: " + simplePushStatusCode);
-                }
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Error during PUT execution to SimplePush Network", e);
-            } finally {
-                // tear down
-                if (conn != null) {
-                    conn.disconnect();
+    public int sendMessage(List<String> pushEndpointURLs, final String payload) {
+        // no need to send empty list
+        if (pushEndpointURLs.isEmpty()) {
+            return 0;
+        }
+
+        logger.fine(String.format("Sending transformed SimplePush version: '%s' to %d endpoints", payload, pushEndpointURLs.size()));
+
+        // PUT the version payload to all the endpoints of the SimplePushServer(s):
+        final Map<Integer, Integer> statusCodes = deliveryPool.deliver(pushEndpointURLs, new HttpDeliveryPool.HttpRequest() {
+            @Override
+            public int execute(String clientURL) throws IOException {
+                final HttpURLConnection conn = put(clientURL, payload);
+                try {
+                    return conn.getResponseCode();
+                } finally {
+                    // no disconnect, the connection is kept alive for the next request:
+                    HttpDeliveryPool.release(conn);
                 }
             }
+        });
+
+        final Integer delivered = statusCodes.remove(Status.OK.getStatusCode());
+        if (statusCodes.isEmpty()) {
+            logger.fine(String.format("SimplePush Status: %d x 200", delivered));
+        } else {
+            logger.severe(String.format("STATUS CODE, from PUSH NETWORK was NOT 200 for %d of %d endpoints, status codes (-1 for I/O errors): %s",
+                    pushEndpointURLs.size() - (delivered == null ? 0 : delivered), pushEndpointURLs.size(), statusCodes));
+
+            for (Map.Entry<Integer, Integer> statusCode : statusCodes.entrySet()) {
+                final String errorCode = statusCode.getKey() == HttpDeliveryPool.IO_ERROR ? "IOException" : String.valueOf(statusCode.getKey());
+                metrics.sendFailed(VariantType.SIMPLE_PUSH, errorCode, statusCode.getValue());
+            }
         }
+        return delivered == null ? 0 : delivered;
     }
 
     /**
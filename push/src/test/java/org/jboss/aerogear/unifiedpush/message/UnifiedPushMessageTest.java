@@ -16,12 +16,14 @@
  */
 package org.jboss.aerogear.unifiedpush.message;
 
+import org.jboss.aerogear.unifiedpush.api.VariantType;
 import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
 import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertFalse;
@@ -451,4 +453,31 @@ public class UnifiedPushMessageTest {
         final UnifiedPushMessage unifiedPushMessage = new UnifiedPushMessage(container);
     }
 
+    @Test
+    public void compiledPayloadIsBuiltOncePerNetwork() {
+        final Map<String, Object> container = new LinkedHashMap<String, Object>();
+        final Map<String, Object> messageObject = new LinkedHashMap<String, Object>();
+        messageObject.put("alert", "Howdy");
+        container.put("message", messageObject);
+        final UnifiedPushMessage unifiedPushMessage = new UnifiedPushMessage(container);
+
+        final AtomicInteger compilations = new AtomicInteger();
+        final PayloadCompiler<String> compiler = new PayloadCompiler<String>() {
+            @Override
+            public String compile(UnifiedPushMessage message) {
+                compilations.incrementAndGet();
+                return new String(message.getAlert());
+            }
+        };
+
+        final String iosPayload = unifiedPushMessage.getCompiledPayload(VariantType.IOS, compiler);
+        assertEquals("Howdy", iosPayload);
+        assertSame(iosPayload, unifiedPushMessage.getCompiledPayload(VariantType.IOS, compiler));
+        assertEquals(1, compilations.get());
+
+        // every network gets its own payload:
+        final String androidPayload = unifiedPushMessage.getCompiledPayload(VariantType.ANDROID, compiler);
+        assertNotSame(iosPayload, androidPayload);
+        assertEquals(2, compilations.get());
+    }
 }
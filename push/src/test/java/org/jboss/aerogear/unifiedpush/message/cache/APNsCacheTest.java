@@ -0,0 +1,143 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.notnoop.apns.ApnsService;
+import org.jboss.aerogear.unifiedpush.api.iOSVariant;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class APNsCacheTest {
+
+    private final ApnsService first = mock(ApnsService.class);
+    private final ApnsService second = mock(ApnsService.class);
+
+    private APNsCache cache;
+    private iOSVariant variant;
+
+    @Before
+    public void setUp() {
+        variant = new iOSVariant();
+        variant.setVariantID("variant");
+        variant.setCertificate(new byte[] { 1, 2, 3 });
+        variant.setPassphrase("secret");
+
+        cache = spy(new APNsCache());
+        doReturn(first).doReturn(second).when(cache).buildApnsService(variant);
+    }
+
+    @Test
+    public void evictedServiceIsStoppedOnceReleased() {
+        final ApnsService service = cache.getApnsServiceForVariant(variant);
+        cache.evict(variant, service);
+
+        // still pushing:
+        verify(first, never()).stop();
+
+        cache.release(service);
+        verify(first).stop();
+    }
+
+    @Test
+    public void evictLeavesReplacementAlone() {
+        final ApnsService evicted = cache.getApnsServiceForVariant(variant);
+        cache.release(evicted);
+        cache.evict(variant, evicted);
+        verify(first).stop();
+
+        final ApnsService replacement = cache.getApnsServiceForVariant(variant);
+        cache.release(replacement);
+        assertThat(replacement).isSameAs(second);
+
+        // a late eviction of the old connection, e.g. by a concurrent delivery:
+        cache.evict(variant, evicted);
+        verify(second, never()).stop();
+        assertThat(cache.getApnsServiceForVariant(variant)).isSameAs(second);
+    }
+
+    @Test(timeout = 5000)
+    public void slowCertificateDoesNotBlockOtherVariants() throws Exception {
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch built = new CountDownLatch(1);
+        doAnswer(new Answer<ApnsService>() {
+            @Override
+            public ApnsService answer(InvocationOnMock invocation) throws Throwable {
+                building.countDown();
+                built.await();
+                return first;
+            }
+        }).when(cache).buildApnsService(variant);
+
+        final iOSVariant other = new iOSVariant();
+        other.setVariantID("other");
+        other.setCertificate(new byte[] { 4, 5, 6 });
+        other.setPassphrase("secret");
+        doReturn(second).when(cache).buildApnsService(other);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Callable<ApnsService> lookup = new Callable<ApnsService>() {
+                @Override
+                public ApnsService call() {
+                    return cache.getApnsServiceForVariant(variant);
+                }
+            };
+            final Future<ApnsService> slow = executor.submit(lookup);
+            building.await();
+
+            // a second caller for the same variant waits for the same build:
+            final Future<ApnsService> waiting = executor.submit(lookup);
+            assertThat(cache.getApnsServiceForVariant(other)).isSameAs(second);
+
+            built.countDown();
+            assertThat(slow.get()).isSameAs(first);
+            assertThat(waiting.get()).isSameAs(first);
+            verify(cache).buildApnsService(variant);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void replacedServiceIsStoppedOnceReleased() {
+        final ApnsService service = cache.getApnsServiceForVariant(variant);
+
+        // the certificate has been changed in the meantime:
+        variant.setPassphrase("changed");
+        assertThat(cache.getApnsServiceForVariant(variant)).isSameAs(second);
+        verify(first, never()).stop();
+
+        cache.release(service);
+        verify(first).stop();
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.aerogear.unifiedpush.message.helper.ChromePackagedAppTokenCache;
+import org.junit.Test;
+
+public class ChromeAccessTokenCacheTest {
+
+    private static final long MARGIN = TimeUnit.SECONDS.toMillis(60);
+
+    private final ChromeAccessTokenCache cache = new ChromeAccessTokenCache(2, MARGIN);
+
+    @Test
+    public void concurrentCallersShareOneRefresh() throws InterruptedException {
+        final AtomicInteger refreshes = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> tokens = new ArrayList<String>();
+
+        final ChromeAccessTokenCache.TokenRefresher refresher = new ChromeAccessTokenCache.TokenRefresher() {
+            @Override
+            public ChromePackagedAppTokenCache refresh() throws Exception {
+                Thread.sleep(50);
+                return token("token-" + refreshes.incrementAndGet(), TimeUnit.HOURS.toMillis(1));
+            }
+        };
+
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 10; i++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    final String token = cache.getAccessToken("client", refresher);
+                    synchronized (tokens) {
+                        tokens.add(token);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertThat(refreshes.get()).isEqualTo(1);
+        assertThat(tokens).hasSize(10).containsOnly("token-1");
+    }
+
+    @Test
+    public void refreshesAheadOfExpiry() {
+        final AtomicInteger refreshes = new AtomicInteger();
+        final ChromeAccessTokenCache.TokenRefresher refresher = new ChromeAccessTokenCache.TokenRefresher() {
+            @Override
+            public ChromePackagedAppTokenCache refresh() {
+                // the first token expires within the refresh margin:
+                final long lifetime = refreshes.get() == 0 ? MARGIN / 2 : TimeUnit.HOURS.toMillis(1);
+                return token("token-" + refreshes.incrementAndGet(), lifetime);
+            }
+        };
+
+        assertThat(cache.getAccessToken("client", refresher)).isEqualTo("token-1");
+        assertThat(cache.getAccessToken("client", refresher)).isEqualTo("token-2");
+        assertThat(cache.getAccessToken("client", refresher)).isEqualTo("token-2");
+        assertThat(refreshes.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void keepsCurrentTokenWhenEarlyRefreshFails() {
+        cache.getAccessToken("client", refresher(token("token-1", MARGIN / 2)));
+
+        final String token = cache.getAccessToken("client", new ChromeAccessTokenCache.TokenRefresher() {
+            @Override
+            public ChromePackagedAppTokenCache refresh() {
+                throw new IllegalStateException("OAuth endpoint down");
+            }
+        });
+
+        assertThat(token).isEqualTo("token-1");
+    }
+
+    @Test
+    public void failedRefreshWithoutTokenReturnsNull() {
+        assertThat(cache.getAccessToken("client", refresher(null))).isNull();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedClient() {
+        final long hour = TimeUnit.HOURS.toMillis(1);
+        cache.getAccessToken("a", refresher(token("token-a", hour)));
+        cache.getAccessToken("b", refresher(token("token-b", hour)));
+        // use 'a' again, so 'b' is the one to go:
+        cache.getAccessToken("a", refresher(null));
+        cache.getAccessToken("c", refresher(token("token-c", hour)));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getAccessToken("a", refresher(null))).isEqualTo("token-a");
+        assertThat(cache.getAccessToken("b", refresher(token("token-b2", hour)))).isEqualTo("token-b2");
+    }
+
+    @Test
+    public void invalidatedTokenIsRefreshed() {
+        final long hour = TimeUnit.HOURS.toMillis(1);
+        cache.getAccessToken("client", refresher(token("token-1", hour)));
+        cache.invalidate("client");
+
+        assertThat(cache.getAccessToken("client", refresher(token("token-2", hour)))).isEqualTo("token-2");
+    }
+
+    private static ChromeAccessTokenCache.TokenRefresher refresher(final ChromePackagedAppTokenCache token) {
+        return new ChromeAccessTokenCache.TokenRefresher() {
+            @Override
+            public ChromePackagedAppTokenCache refresh() {
+                return token;
+            }
+        };
+    }
+
+    private static ChromePackagedAppTokenCache token(String accessToken, long lifetimeMillis) {
+        final ChromePackagedAppTokenCache token = new ChromePackagedAppTokenCache();
+        token.setAccessToken(accessToken);
+        token.setExpiresIn(System.currentTimeMillis() + lifetimeMillis);
+        return token;
+    }
+}
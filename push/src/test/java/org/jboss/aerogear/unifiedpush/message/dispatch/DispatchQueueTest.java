@@ -0,0 +1,103 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.dispatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DispatchQueueTest {
+
+    private DispatchQueue queue;
+
+    @Before
+    public void createQueue() {
+        // one worker, and room for one pending task:
+        queue = new DispatchQueue("test", 1, 1);
+    }
+
+    @After
+    public void shutdownQueue() {
+        queue.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void offerDoesNotBlockOnFullQueue() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger done = new AtomicInteger();
+
+        queue.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                await(release);
+                done.incrementAndGet();
+            }
+        });
+        started.await(5, TimeUnit.SECONDS);
+
+        assertThat(queue.offer(counting(done))).isTrue();
+        assertThat(queue.offer(counting(done))).isFalse();
+        assertThat(queue.getPendingTasks()).isEqualTo(1);
+
+        release.countDown();
+        queue.submit(counting(done));
+        queue.shutdown(5, TimeUnit.SECONDS);
+
+        assertThat(done.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void failingTaskFreesItsSlot() throws InterruptedException {
+        queue.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("broken variant");
+            }
+        });
+        final AtomicInteger done = new AtomicInteger();
+        queue.submit(counting(done));
+        queue.submit(counting(done));
+        queue.shutdown(5, TimeUnit.SECONDS);
+
+        assertThat(done.get()).isEqualTo(2);
+    }
+
+    private static Runnable counting(final AtomicInteger counter) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                counter.incrementAndGet();
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
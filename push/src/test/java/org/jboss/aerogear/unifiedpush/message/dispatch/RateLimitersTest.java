@@ -0,0 +1,63 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.dispatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RateLimitersTest {
+
+    private RateLimiters rateLimiters;
+
+    @Before
+    public void configureLimits() {
+        // the limits are read when the rate limiters are created:
+        System.setProperty("aerogear.unifiedpush.ratelimit.android.credentialRate", "100");
+        System.setProperty("aerogear.unifiedpush.ratelimit.credentials", "2");
+        rateLimiters = new RateLimiters();
+    }
+
+    @After
+    public void clearLimits() {
+        System.clearProperty("aerogear.unifiedpush.ratelimit.android.credentialRate");
+        System.clearProperty("aerogear.unifiedpush.ratelimit.credentials");
+    }
+
+    @Test
+    public void limitsEachCredential() {
+        // one more than the burst, so the next send of the credential has to wait:
+        assertThat(rateLimiters.reserve(VariantType.ANDROID, "key", 101)).isEqualTo(0);
+        assertThat(rateLimiters.reserve(VariantType.ANDROID, "key", 1)).isGreaterThan(0);
+
+        // other credentials and networks are not affected:
+        assertThat(rateLimiters.reserve(VariantType.ANDROID, "other-key", 1)).isEqualTo(0);
+        assertThat(rateLimiters.reserve(VariantType.IOS, "key", 1000)).isEqualTo(0);
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsedCredentials() {
+        rateLimiters.reserve(VariantType.ANDROID, "first-key", 1);
+        rateLimiters.reserve(VariantType.ANDROID, "second-key", 1);
+        rateLimiters.reserve(VariantType.ANDROID, "third-key", 1);
+
+        assertThat(rateLimiters.credentialLimitCount()).isEqualTo(2);
+    }
+}
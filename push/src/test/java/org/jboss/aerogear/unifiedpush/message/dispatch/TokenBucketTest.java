@@ -0,0 +1,63 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.dispatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void burstWithinCapacityDoesNotWait() {
+        final TokenBucket bucket = new TokenBucket(100, 100);
+
+        assertThat(bucket.reserve(60)).isEqualTo(0);
+        assertThat(bucket.reserve(40)).isEqualTo(0);
+    }
+
+    @Test
+    public void debtHasToBePaidOff() {
+        final TokenBucket bucket = new TokenBucket(100, 100);
+
+        // a batch larger than the bucket is accepted at once...
+        assertThat(bucket.reserve(1000)).isEqualTo(0);
+
+        // ...but the next one waits until the 900 permits of debt (9 seconds) have been refilled:
+        final long wait = bucket.reserve(1);
+        assertThat(wait).isGreaterThan(TimeUnit.SECONDS.toNanos(8)).isLessThanOrEqualTo(TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    public void refillsOverTime() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket(1000, 10);
+        bucket.reserve(10);
+
+        Thread.sleep(50);
+
+        // refilled, but never above the capacity (otherwise there would be no debt left):
+        assertThat(bucket.reserve(20)).isEqualTo(0);
+        assertThat(bucket.reserve(1)).isGreaterThan(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroRate() {
+        new TokenBucket(0, 10);
+    }
+}
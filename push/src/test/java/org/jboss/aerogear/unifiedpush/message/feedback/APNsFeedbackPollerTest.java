@@ -0,0 +1,150 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.feedback;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import com.notnoop.apns.ApnsService;
+import org.jboss.aerogear.unifiedpush.api.iOSVariant;
+import org.jboss.aerogear.unifiedpush.message.cache.APNsCache;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+public class APNsFeedbackPollerTest {
+
+    @Mock
+    private APNsCache apnsCache;
+
+    @Mock
+    private ApnsService apnsService;
+
+    @Mock
+    private ClientInstallationService clientInstallationService;
+
+    @Spy
+    private PushMetrics metrics = new PushMetrics();
+
+    @InjectMocks
+    private APNsFeedbackPoller poller;
+
+    private final iOSVariant variant = new iOSVariant();
+
+    @Before
+    public void injectMocks() {
+        MockitoAnnotations.initMocks(this);
+        variant.setVariantID("variant");
+        when(apnsCache.getApnsServiceForVariant(variant)).thenReturn(apnsService);
+    }
+
+    @Test
+    public void removesInactiveTokensOfSentVariants() {
+        final Map<String, Date> inactive = new HashMap<String, Date>();
+        inactive.put("ABCDEF", new Date());
+        when(apnsService.getInactiveDevices()).thenReturn(inactive);
+
+        poller.variantSent(variant);
+        poller.poll();
+
+        verify(clientInstallationService).removeInstallationsForVariantByDeviceTokens("variant", Collections.singleton("abcdef"));
+    }
+
+    @Test
+    public void skipsVariantsWithoutSends() {
+        poller.poll();
+
+        verify(apnsCache, never()).getApnsServiceForVariant(variant);
+        verify(clientInstallationService, never()).removeInstallationsForVariantByDeviceTokens(anyString(), anySetOf(String.class));
+    }
+
+    @Test
+    public void skipsDeletionWithoutInactiveTokens() {
+        when(apnsService.getInactiveDevices()).thenReturn(Collections.<String, Date>emptyMap());
+
+        poller.variantSent(variant);
+        poller.poll();
+
+        verify(apnsService).getInactiveDevices();
+        verify(clientInstallationService, never()).removeInstallationsForVariantByDeviceTokens(anyString(), anySetOf(String.class));
+    }
+
+    @Test
+    public void keepsTokensForNextPollWhenDeletionFails() {
+        final Map<String, Date> first = new HashMap<String, Date>();
+        first.put("AAAA", new Date());
+        final Map<String, Date> second = new HashMap<String, Date>();
+        second.put("BBBB", new Date());
+        when(apnsService.getInactiveDevices()).thenReturn(first, second);
+        doThrow(new IllegalStateException("no EJB container")).doNothing().when(clientInstallationService)
+                .removeInstallationsForVariantByDeviceTokens(anyString(), anySetOf(String.class));
+
+        poller.variantSent(variant);
+        poller.poll();
+        poller.poll();
+
+        verify(clientInstallationService, times(2)).removeInstallationsForVariantByDeviceTokens(anyString(), anySetOf(String.class));
+        verify(clientInstallationService).removeInstallationsForVariantByDeviceTokens("variant", new HashSet<String>(Arrays.asList("aaaa", "bbbb")));
+    }
+
+    @Test
+    public void evictsBrokenFeedbackConnection() {
+        when(apnsService.getInactiveDevices()).thenThrow(new IllegalStateException("connection reset"));
+
+        poller.variantSent(variant);
+        poller.poll();
+
+        verify(apnsCache).evict(variant, apnsService);
+        verify(apnsCache).release(apnsService);
+    }
+
+    @Test
+    public void brokenCertificateDoesNotStopOtherVariants() {
+        final iOSVariant broken = new iOSVariant();
+        broken.setVariantID("broken");
+        when(apnsCache.getApnsServiceForVariant(broken)).thenThrow(new IllegalStateException("certificate expired"));
+        final Map<String, Date> inactive = new HashMap<String, Date>();
+        inactive.put("ABCDEF", new Date());
+        when(apnsService.getInactiveDevices()).thenReturn(inactive);
+
+        poller.variantSent(broken);
+        poller.variantSent(variant);
+        poller.poll();
+
+        verify(apnsCache, never()).evict(same(broken), any(ApnsService.class));
+        verify(clientInstallationService).removeInstallationsForVariantByDeviceTokens("variant", Collections.singleton("abcdef"));
+    }
+}
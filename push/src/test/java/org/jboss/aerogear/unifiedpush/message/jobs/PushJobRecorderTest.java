@@ -0,0 +1,127 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.jobs;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.aerogear.unifiedpush.api.PushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.VariantDeliveryResult;
+import org.jboss.aerogear.unifiedpush.service.PushJobService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class PushJobRecorderTest {
+
+    @Mock
+    private PushJobService pushJobService;
+
+    @InjectMocks
+    private PushJobRecorder recorder;
+
+    @Before
+    public void injectMocks() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void flushPendingRecordsInOneCall() {
+        final PushMessageInformation job = new PushMessageInformation();
+        final VariantDeliveryResult first = new VariantDeliveryResult();
+        final VariantDeliveryResult second = new VariantDeliveryResult();
+
+        recorder.jobSubmitted(job);
+        recorder.variantCompleted(first);
+        recorder.variantCompleted(second);
+        recorder.flush();
+
+        verify(pushJobService).addRecords(Arrays.asList(job), Arrays.asList(first, second));
+
+        // nothing left for the next round:
+        recorder.flush();
+        verify(pushJobService, times(1)).addRecords(anyListOf(PushMessageInformation.class), anyListOf(VariantDeliveryResult.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void neverDropJobRecords() {
+        for (int i = 0; i <= 10000; i++) {
+            recorder.variantCompleted(new VariantDeliveryResult());
+        }
+        final PushMessageInformation job = new PushMessageInformation();
+        recorder.jobSubmitted(job);
+        recorder.flush();
+
+        final ArgumentCaptor<List> jobs = ArgumentCaptor.forClass(List.class);
+        final ArgumentCaptor<List> results = ArgumentCaptor.forClass(List.class);
+        verify(pushJobService).addRecords(jobs.capture(), results.capture());
+        assertThat(jobs.getValue()).containsExactly(job);
+        // one result beyond the bound has been dropped:
+        assertThat(results.getValue()).hasSize(10000);
+    }
+
+    @Test
+    public void purgeRecordsOlderThanRetentionPeriod() {
+        recorder.purge();
+
+        final ArgumentCaptor<Date> date = ArgumentCaptor.forClass(Date.class);
+        verify(pushJobService).removeRecordsOlderThan(date.capture());
+        final long age = System.currentTimeMillis() - date.getValue().getTime();
+        assertThat(age).isGreaterThanOrEqualTo(TimeUnit.DAYS.toMillis(30)).isLessThan(TimeUnit.DAYS.toMillis(31));
+    }
+
+    @Test
+    public void survivesFailingPurge() {
+        doThrow(new IllegalStateException("database down")).when(pushJobService).removeRecordsOlderThan(any(Date.class));
+
+        recorder.purge();
+    }
+
+    @Test
+    public void skipEmptyFlush() {
+        recorder.flush();
+
+        verifyZeroInteractions(pushJobService);
+    }
+
+    @Test
+    public void survivesFailingDatabase() {
+        final VariantDeliveryResult result = new VariantDeliveryResult();
+        doThrow(new IllegalStateException("database down")).when(pushJobService)
+                .addRecords(Collections.<PushMessageInformation>emptyList(), Arrays.asList(result));
+
+        recorder.variantCompleted(result);
+        recorder.flush();
+
+        verify(pushJobService).addRecords(Collections.<PushMessageInformation>emptyList(), Arrays.asList(result));
+    }
+}
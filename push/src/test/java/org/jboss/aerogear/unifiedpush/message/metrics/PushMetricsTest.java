@@ -0,0 +1,70 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.junit.Test;
+
+public class PushMetricsTest {
+
+    @Test
+    public void histogramPercentiles() {
+        final Histogram histogram = new Histogram(10, 100, 1000);
+        for (int i = 1; i <= 90; i++) {
+            histogram.record(5);
+        }
+        for (int i = 1; i <= 9; i++) {
+            histogram.record(50);
+        }
+        histogram.record(4000);
+
+        final Map<String, Object> snapshot = histogram.snapshot();
+        assertThat(snapshot.get("count")).isEqualTo(100L);
+        assertThat(snapshot.get("max")).isEqualTo(4000L);
+        assertThat(snapshot.get("p50")).isEqualTo(10L);
+        assertThat(snapshot.get("p95")).isEqualTo(100L);
+        assertThat(snapshot.get("p99")).isEqualTo(100L);
+        assertThat(((Map<?, ?>) snapshot.get("buckets")).get("+Inf")).isEqualTo(1L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void snapshotPerNetwork() {
+        final PushMetrics metrics = new PushMetrics();
+        metrics.messageAccepted();
+        metrics.tokensResolved(VariantType.ANDROID, 1000);
+        metrics.tokensResolved(VariantType.ANDROID, 20);
+        metrics.batchDelivered(VariantType.ANDROID, System.nanoTime());
+        metrics.sendFailed(VariantType.ANDROID, "InvalidRegistration", 3);
+        metrics.sendFailed(VariantType.ANDROID, "InvalidRegistration");
+        metrics.invalidTokensPruned(VariantType.ANDROID, 4);
+
+        final Map<String, Object> snapshot = metrics.snapshot();
+        assertThat(snapshot.get("messagesAccepted")).isEqualTo(1L);
+
+        final Map<String, Object> android = (Map<String, Object>) ((Map<String, Object>) snapshot.get("networks")).get("android");
+        assertThat(android.get("tokensResolved")).isEqualTo(1020L);
+        assertThat(((Map<String, Object>) android.get("batchSize")).get("count")).isEqualTo(2L);
+        assertThat(((Map<String, Object>) android.get("sendLatencyMillis")).get("count")).isEqualTo(1L);
+        assertThat(((Map<String, Long>) android.get("failures")).get("InvalidRegistration")).isEqualTo(4L);
+        assertThat(android.get("invalidTokensPruned")).isEqualTo(4L);
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import com.notnoop.apns.ApnsService;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.api.iOSVariant;
+import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
+import org.jboss.aerogear.unifiedpush.message.cache.APNsCache;
+import org.jboss.aerogear.unifiedpush.message.feedback.APNsFeedbackPoller;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+import org.jboss.aerogear.unifiedpush.mock.MockAPNsServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+public class APNsPushNotificationSenderTest {
+
+    // self-signed certificate, used by the mock gateway as well as by the variant
+    private static final String KEYSTORE = "/mock-apns.p12";
+    private static final String PASSPHRASE = "aerogear";
+
+    @Spy
+    private APNsCache apnsCache;
+
+    @Spy
+    private PushMetrics metrics = new PushMetrics();
+
+    @Mock
+    private APNsFeedbackPoller feedbackPoller;
+
+    @InjectMocks
+    private APNsPushNotificationSender sender;
+
+    private MockAPNsServer server;
+    private iOSVariant variant;
+
+    @Before
+    public void startMockServer() throws Exception {
+        final byte[] certificate = readKeystore();
+
+        server = new MockAPNsServer(serverContext(certificate));
+        server.start();
+
+        // the destinations are read when the cache is created, and the client has to trust the mock:
+        System.setProperty("aerogear.unifiedpush.apns.gateway", server.getGatewayDestination());
+        System.setProperty("aerogear.unifiedpush.apns.feedback", server.getFeedbackDestination());
+        System.setProperty("javax.net.ssl.trustStore", getClass().getResource(KEYSTORE).getFile());
+        System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+        System.setProperty("javax.net.ssl.trustStorePassword", PASSPHRASE);
+        apnsCache = new APNsCache();
+        MockitoAnnotations.initMocks(this);
+        apnsCache.startIdleReaper();
+
+        variant = new iOSVariant();
+        variant.setVariantID("variant");
+        variant.setCertificate(certificate);
+        variant.setPassphrase(PASSPHRASE);
+    }
+
+    @After
+    public void stopMockServer() {
+        apnsCache.stopAll();
+        server.stop();
+        System.clearProperty("aerogear.unifiedpush.apns.gateway");
+        System.clearProperty("aerogear.unifiedpush.apns.feedback");
+        System.clearProperty("javax.net.ssl.trustStore");
+        System.clearProperty("javax.net.ssl.trustStoreType");
+        System.clearProperty("javax.net.ssl.trustStorePassword");
+    }
+
+    @Test
+    public void connectionDroppedMidBatchIsNotRetried() {
+        // more than the socket buffers hold, so that the client notices the dropped connection:
+        final List<String> tokens = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            tokens.add(String.format("%064x", i));
+        }
+        server.getBehavior().withConnectionDropAfter(100);
+
+        assertEquals(0, sender.sendPushMessage(variant, tokens, message()));
+
+        // the batch is not handed back for a retry, which would deliver the first 100 notifications twice:
+        assertEquals(100, server.getReceived());
+        verify(metrics).sendFailed(VariantType.IOS, "NetworkIOException", tokens.size());
+        verify(apnsCache).evict(same(variant), any(ApnsService.class));
+    }
+
+    @Test
+    public void invalidCertificateFailsTheVariant() {
+        variant.setPassphrase("wrong");
+
+        try {
+            sender.sendPushMessage(variant, Arrays.asList(String.format("%064x", 1)), message());
+            fail("the batch would be retried");
+        } catch (PermanentDeliveryException e) {
+            verify(metrics).sendFailed(VariantType.IOS, "InvalidCertificate", 1);
+            verify(apnsCache, never()).evict(same(variant), any(ApnsService.class));
+        }
+    }
+
+    private static UnifiedPushMessage message() {
+        final Map<String, Object> messageObject = new HashMap<String, Object>();
+        messageObject.put("alert", "Hello");
+
+        final Map<String, Object> container = new HashMap<String, Object>();
+        container.put("message", messageObject);
+        return new UnifiedPushMessage(container);
+    }
+
+    private static SSLContext serverContext(byte[] certificate) throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(new ByteArrayInputStream(certificate), PASSPHRASE.toCharArray());
+
+        final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSPHRASE.toCharArray());
+
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    private byte[] readKeystore() throws IOException {
+        final InputStream in = getClass().getResourceAsStream(KEYSTORE);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
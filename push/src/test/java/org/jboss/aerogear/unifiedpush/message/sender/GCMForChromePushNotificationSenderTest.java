@@ -0,0 +1,112 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.aerogear.unifiedpush.api.ChromePackagedAppVariant;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+import org.jboss.aerogear.unifiedpush.mock.MockChromeServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+public class GCMForChromePushNotificationSenderTest {
+
+    @Spy
+    private PushMetrics metrics = new PushMetrics();
+
+    @InjectMocks
+    private GCMForChromePushNotificationSender sender;
+
+    private MockChromeServer server;
+
+    @Before
+    public void startMockServer() throws Exception {
+        server = new MockChromeServer();
+        server.start();
+
+        // the endpoints are read when the sender is created:
+        System.setProperty("aerogear.unifiedpush.chrome.messageUrl", server.getMessageURL());
+        System.setProperty("aerogear.unifiedpush.chrome.accessTokenUrl", server.getAccessTokenURL());
+        MockitoAnnotations.initMocks(this);
+        sender.startDeliveryPool();
+    }
+
+    @After
+    public void stopMockServer() {
+        sender.stopDeliveryPool();
+        server.stop();
+        System.clearProperty("aerogear.unifiedpush.chrome.messageUrl");
+        System.clearProperty("aerogear.unifiedpush.chrome.accessTokenUrl");
+    }
+
+    @Test
+    public void sendToMockServer() {
+        final ChromePackagedAppVariant variant = new ChromePackagedAppVariant();
+        variant.setClientId("client");
+        variant.setClientSecret("secret");
+        variant.setRefreshToken("refresh");
+
+        // quotes in the alert must not break the JSON body:
+        assertEquals(2, sender.sendMessage(variant, Arrays.asList("channel-1", "channel-2", "invalid-3"), message("It's a \"quoted\" alert")));
+        assertEquals(2, sender.sendMessage(variant, Arrays.asList("channel-1", "channel-2"), message("second")));
+
+        assertEquals(4, server.getReceived());
+        assertEquals(1, server.getRejected());
+        // the access token is reused by the second send:
+        assertEquals(1, server.getTokenRequests());
+        verify(metrics).sendFailed(VariantType.CHROME_PACKAGED_APP, "400", 1);
+    }
+
+    @Test
+    public void noRequestsWithoutAccessToken() {
+        final ChromePackagedAppVariant variant = new ChromePackagedAppVariant();
+        variant.setClientId("client");
+        variant.setClientSecret("secret");
+        variant.setRefreshToken("invalid-refresh");
+
+        try {
+            sender.sendMessage(variant, Arrays.asList("channel-1", "channel-2"), message("hello"));
+            fail("the batch is not retried");
+        } catch (IllegalStateException e) {
+            verify(metrics).sendFailed(VariantType.CHROME_PACKAGED_APP, "NoAccessToken", 2);
+        }
+
+        // no request with a missing token has been sent:
+        assertEquals(0, server.getReceived());
+        assertEquals(0, server.getRejected());
+    }
+
+    private static UnifiedPushMessage message(String alert) {
+        final Map<String, Object> payload = new HashMap<String, Object>();
+        payload.put("alert", alert);
+        final Map<String, Object> data = new HashMap<String, Object>();
+        data.put("message", payload);
+        return new UnifiedPushMessage(data);
+    }
+}
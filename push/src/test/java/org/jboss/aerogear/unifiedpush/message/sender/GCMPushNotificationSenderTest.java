@@ -0,0 +1,168 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.aerogear.unifiedpush.api.AndroidVariant;
+import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+import org.jboss.aerogear.unifiedpush.mock.MockGCMServer;
+import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+public class GCMPushNotificationSenderTest {
+
+    private static final long RETRY_TIMEOUT_MILLIS = 10000;
+
+    @Mock
+    private ClientInstallationService clientInstallationService;
+
+    @Spy
+    private PushMetrics metrics = new PushMetrics();
+
+    @InjectMocks
+    private GCMPushNotificationSender sender;
+
+    private MockGCMServer server;
+    private AndroidVariant variant;
+
+    @Before
+    public void startMockServer() throws Exception {
+        server = new MockGCMServer();
+        server.start();
+
+        // the endpoint is read when the sender is created:
+        System.setProperty("aerogear.unifiedpush.gcm.endpoint", server.getSendURL());
+        MockitoAnnotations.initMocks(this);
+        sender.startExecutors();
+
+        variant = new AndroidVariant();
+        variant.setVariantID("variant");
+        variant.setGoogleKey("key");
+    }
+
+    @After
+    public void stopMockServer() {
+        sender.stopExecutors();
+        server.stop();
+        System.clearProperty("aerogear.unifiedpush.gcm.endpoint");
+    }
+
+    @Test
+    public void retryOnlyUnavailableRegistrationIDs() throws InterruptedException {
+        server.getBehavior().withUnavailableTokens("token-2");
+
+        assertEquals(1, sender.sendPushMessage(variant, Arrays.asList("token-1", "token-2", "invalid-3"), message()));
+        verify(clientInstallationService).reconcileDeviceTokensForVariant("variant", Collections.<String, String>emptyMap(), Collections.singleton("invalid-3"));
+
+        // the retry only carries the unavailable one:
+        awaitReceived(2);
+        assertEquals(2, server.getRejected());
+    }
+
+    @Test
+    public void reconcileCanonicalAndUnregisteredIDsInOneCall() {
+        server.getBehavior()
+                .withCanonicalToken("token-1", "token-1b")
+                .withUnregisteredTokens("token-2");
+
+        assertEquals(2, sender.sendPushMessage(variant, Arrays.asList("token-1", "token-2", "invalid-3", "token-4"), message()));
+
+        verify(clientInstallationService).reconcileDeviceTokensForVariant("variant",
+                Collections.singletonMap("token-1", "token-1b"), new HashSet<String>(Arrays.asList("token-2", "invalid-3")));
+    }
+
+    @Test
+    public void skipReconciliationForCleanResults() {
+        assertEquals(2, sender.sendPushMessage(variant, Arrays.asList("token-1", "token-2"), message()));
+
+        verifyZeroInteractions(clientInstallationService);
+    }
+
+    @Test
+    public void retryUnavailableService() throws InterruptedException {
+        server.getBehavior().withFailures(1);
+
+        assertEquals(0, sender.sendPushMessage(variant, Arrays.asList("token-1", "token-2"), message()));
+
+        awaitReceived(2);
+    }
+
+    @Test
+    public void splitLargeVariantsIntoConcurrentMulticasts() {
+        final List<String> registrationIDs = new ArrayList<String>();
+        for (int i = 0; i < 2500; i++) {
+            registrationIDs.add(String.format("token-%04d", i));
+        }
+        // results at the edges of the chunks, to check that they are mapped back to the right registration IDs:
+        server.getBehavior()
+                .withLatency(200)
+                .withUnregisteredTokens("token-0999", "token-1000", "token-2000")
+                .withCanonicalToken("token-2499", "token-2499b");
+
+        assertEquals(2497, sender.sendPushMessage(variant, registrationIDs, message()));
+
+        final List<Integer> sizes = server.getMulticastSizes();
+        Collections.sort(sizes);
+        assertEquals(Arrays.asList(500, 1000, 1000), sizes);
+        assertTrue(server.getMaxConcurrentRequests() > 1);
+
+        // one reconciliation per multicast:
+        verify(clientInstallationService, times(3)).reconcileDeviceTokensForVariant(anyString(), anyMap(), anySetOf(String.class));
+        verify(clientInstallationService).reconcileDeviceTokensForVariant("variant", Collections.<String, String>emptyMap(), Collections.singleton("token-0999"));
+        verify(clientInstallationService).reconcileDeviceTokensForVariant("variant", Collections.<String, String>emptyMap(), Collections.singleton("token-1000"));
+        verify(clientInstallationService).reconcileDeviceTokensForVariant("variant",
+                Collections.singletonMap("token-2499", "token-2499b"), Collections.singleton("token-2000"));
+    }
+
+    private void awaitReceived(long expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + RETRY_TIMEOUT_MILLIS;
+        while (server.getReceived() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(expected, server.getReceived());
+    }
+
+    private static UnifiedPushMessage message() {
+        final Map<String, Object> payload = new HashMap<String, Object>();
+        payload.put("alert", "Hello");
+        final Map<String, Object> data = new HashMap<String, Object>();
+        data.put("message", payload);
+        return new UnifiedPushMessage(data);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpDeliveryPoolTest {
+
+    private HttpDeliveryPool pool;
+
+    @Before
+    public void createPool() {
+        pool = new HttpDeliveryPool("test", 3);
+    }
+
+    @After
+    public void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void countResponsesPerStatusCode() {
+        final Map<Integer, Integer> statusCodes = pool.deliver(Arrays.asList("ok-1", "ok-2", "gone", "broken", "ok-3"), new HttpDeliveryPool.HttpRequest() {
+            @Override
+            public int execute(String target) throws IOException {
+                if (target.startsWith("ok")) {
+                    return 200;
+                }
+                if (target.equals("gone")) {
+                    return 404;
+                }
+                throw new IOException("connection refused");
+            }
+        });
+
+        assertThat(statusCodes.get(200)).isEqualTo(3);
+        assertThat(statusCodes.get(404)).isEqualTo(1);
+        assertThat(statusCodes.get(HttpDeliveryPool.IO_ERROR)).isEqualTo(1);
+    }
+
+    @Test
+    public void deliverToNoTargets() {
+        final Map<Integer, Integer> statusCodes = pool.deliver(Arrays.<String>asList(), new HttpDeliveryPool.HttpRequest() {
+            @Override
+            public int execute(String target) throws IOException {
+                return 200;
+            }
+        });
+
+        assertThat(statusCodes).isEmpty();
+    }
+}
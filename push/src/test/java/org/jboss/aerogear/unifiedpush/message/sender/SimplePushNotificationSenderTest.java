@@ -17,20 +17,59 @@
 package org.jboss.aerogear.unifiedpush.message.sender;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.verify;
 
 import java.net.HttpURLConnection;
+import java.util.Arrays;
 
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.message.metrics.PushMetrics;
+import org.jboss.aerogear.unifiedpush.mock.MockSimplePushServer;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 
 public class SimplePushNotificationSenderTest {
 
+    @Spy
+    private PushMetrics metrics = new PushMetrics();
+
+    @InjectMocks
+    private SimplePushNotificationSender sender;
+
     @BeforeClass
     public static void setDebug() {
         //System.setProperty("javax.net.debug", "all");
     }
 
+    @Before
+    public void injectMetrics() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void sendToMockServer() throws Exception {
+        final MockSimplePushServer server = new MockSimplePushServer();
+        server.start();
+        sender.startDeliveryPool();
+        try {
+            assertEquals(200, sender.put(server.getEndpointURL("123"), "version=1").getResponseCode());
+            assertEquals(404, sender.put(server.getEndpointURL("invalid-123"), "version=1").getResponseCode());
+
+            assertEquals(2, sender.sendMessage(Arrays.asList(server.getEndpointURL("1"), server.getEndpointURL("2"), server.getEndpointURL("invalid-2")), "version=2"));
+            assertEquals(3, server.getReceived());
+            assertEquals(2, server.getRejected());
+            verify(metrics).sendFailed(VariantType.SIMPLE_PUSH, "404", 1);
+        } finally {
+            sender.stopDeliveryPool();
+            server.stop();
+        }
+    }
+
     @Test
     @Ignore("This is intended to be a manual test just to verify that https works in combination with OpenShift")
     public void sendWithHttpsOpenShift() throws Exception {
@@ -17,9 +17,12 @@
 package org.jboss.aerogear.unifiedpush.service;
 
 import org.jboss.aerogear.unifiedpush.api.Installation;
+import org.jboss.aerogear.unifiedpush.api.Variant;
 import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.dao.PageResult;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -33,6 +36,13 @@ public interface ClientInstallationService {
      */
     void addInstallation(VariantType type, Installation installation);
 
+    /**
+     * Bulk registration: Stores the given installations for the variant. Installations whose device-token is
+     * already registered for the variant are updated (if enabled), all others are created. The work is done
+     * in batches, with one lookup query and one flush per batch.
+     */
+    void addInstallations(Variant variant, List<Installation> installations);
+
     /**
      * Performs an update/merge on the given entity.
      */
@@ -51,6 +61,13 @@ public interface ClientInstallationService {
      */
     Installation findById(String primaryKey);
 
+    /**
+     * Used for the management API: Returns one page of the installations of the given variant, optionally filtered by
+     * categories, aliases and deviceTypes, together with the total number of matching installations.
+     */
+    PageResult<Installation> findInstallationsForVariantByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                    int page, int pageSize);
+
     /**
      * Removes the given installation entity.
      */
@@ -66,6 +83,19 @@ public interface ClientInstallationService {
      */
     void removeInstallationsForVariantByDeviceTokens(String variantID, Set<String> deviceTokens);
 
+    /**
+     * Used for "feedback service": Deletes one batch of the invalid Installations for a Variant, in a transaction of
+     * its own, by a bulk delete. Returns the number of removed Installations.
+     */
+    int removeInstallationBatchForVariantByDeviceTokens(String variantID, Set<String> deviceTokens);
+
+    /**
+     * Used for "feedback service" of GCM: applies the outcome of one multicast in a single transaction. Installations
+     * with an unregistered token are deleted. Tokens which have been replaced by a canonical one (the keys of the
+     * <code>Map</code>) are updated, or deleted if their canonical token is registered already.
+     */
+    void reconcileDeviceTokensForVariant(String variantID, Map<String, String> canonicalTokens, Set<String> unregisteredTokens);
+
     /**
      * Used for "Device Registration":
      * 
@@ -84,4 +114,18 @@ public interface ClientInstallationService {
      * Used for (SimplePush) Sender API. Queries the available SimplePush "pushEndpoint URLs" for a given variant, based on provided criteria
      */
     List<String> findAllSimplePushEndpointURLsForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes);
+
+    /**
+     * Used for (Android/iOS) Sender API. Queries the next batch of device-tokens for a given variant, based on provided criteria.
+     * The batch starts right after the given <code>lastDeviceToken</code> (use <code>null</code> for the first batch).
+     */
+    List<String> findDeviceTokenBatchForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                            String lastDeviceToken, int batchSize);
+
+    /**
+     * Used for (SimplePush) Sender API. Queries the next batch of SimplePush "pushEndpoint URLs" for a given variant, based on provided criteria.
+     * The batch starts right after the given <code>lastPushEndpointURL</code> (use <code>null</code> for the first batch).
+     */
+    List<String> findSimplePushEndpointURLBatchForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                      String lastPushEndpointURL, int batchSize);
 }
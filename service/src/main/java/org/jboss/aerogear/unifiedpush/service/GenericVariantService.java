@@ -19,6 +19,8 @@ package org.jboss.aerogear.unifiedpush.service;
 import org.jboss.aerogear.unifiedpush.api.Installation;
 import org.jboss.aerogear.unifiedpush.api.Variant;
 
+import java.util.List;
+
 /**
  * Service class that offers functionality to deal with the different variants (e.g. Android, iOS or SimplePush variants).
  */
@@ -36,6 +38,9 @@ public interface GenericVariantService {
 
     /**
      * Returns the Variant entity, matching the given variantID.
+     *
+     * Used on the hot path of the device registration: the result is a cached, read-only copy of the variant,
+     * that does not contain any installations.
      */
     Variant findByVariantID(String variantID);
 
@@ -45,13 +50,22 @@ public interface GenericVariantService {
     Variant findByVariantIDForDeveloper(String variantID, String loginName);
 
     /**
-     * Adds a installation (device/client) to the given variant
+     * Adds a installation (device/client) to the given variant, by setting its variantID. Needs to be called
+     * before the installation is stored, the variant itself is not updated.
      *
      * @param variant the container/owner the installation belongs to
      * @param installation the device/client to be registered
      */
     void addInstallation(Variant variant, Installation installation);
 
+    /**
+     * Adds all the given installations (devices/clients) to the given variant, before they are stored.
+     *
+     * @param variant the container/owner the installations belong to
+     * @param installations the devices/clients to be registered
+     */
+    void addInstallations(Variant variant, List<Installation> installations);
+
     /**
      * Removes the given variant entity.
      */
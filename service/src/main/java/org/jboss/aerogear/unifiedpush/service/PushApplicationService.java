@@ -44,6 +44,9 @@ public interface PushApplicationService {
 
     /**
      * Returns the PushApplication entity, matching the given ID.
+     *
+     * Used on the hot path of the Sender API: the result is a cached, read-only copy of the application and its
+     * variants, that does not contain any installations.
      */
     PushApplication findByPushApplicationID(String pushApplicationID);
 
@@ -0,0 +1,51 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.service;
+
+import org.jboss.aerogear.unifiedpush.api.PushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.VariantDeliveryResult;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Service class that stores and loads the records of the submitted push jobs.
+ */
+public interface PushJobService {
+
+    /**
+     * Appends the given job records and per-variant results to the database, in one transaction.
+     */
+    void addRecords(List<PushMessageInformation> jobs, List<VariantDeliveryResult> results);
+
+    /**
+     * Removes the records of the jobs submitted, and of the variant results completed, before the given date.
+     *
+     * @return number of removed records
+     */
+    int removeRecordsOlderThan(Date date);
+
+    /**
+     * Returns the job, matching the given jobID.
+     */
+    PushMessageInformation findJob(String jobID);
+
+    /**
+     * Returns the results of all variants of the given job, that have been completed so far.
+     */
+    List<VariantDeliveryResult> findVariantDeliveryResults(String jobID);
+}
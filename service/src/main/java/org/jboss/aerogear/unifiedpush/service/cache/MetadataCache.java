@@ -0,0 +1,243 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.service.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import org.jboss.aerogear.unifiedpush.api.AndroidVariant;
+import org.jboss.aerogear.unifiedpush.api.ChromePackagedAppVariant;
+import org.jboss.aerogear.unifiedpush.api.PushApplication;
+import org.jboss.aerogear.unifiedpush.api.SimplePushVariant;
+import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.api.iOSVariant;
+
+/**
+ * In-memory cache for the authentication and routing metadata of {@link PushApplication}s and {@link Variant}s:
+ * IDs, secrets, variant types and push network credentials.
+ *
+ * <p>
+ * The cache holds detached copies, that do <b>not</b> contain any {@link org.jboss.aerogear.unifiedpush.api.Installation}.
+ * Entries are invalidated by the services whenever an application or variant is updated or removed: right away, and once more
+ * after the transaction with the change has committed (see {@link MetadataInvalidation}), so that a lookup running concurrently
+ * with the change can not keep the previous secrets cached.
+ *
+ * <p>
+ * The cache is local to each node. On a cluster, a change made on another node (e.g. a reset secret, or a removed variant) is
+ * only seen once the entry has expired, so keep the time-to-live short. Size and time-to-live are configured with the following
+ * system properties:
+ * <ul>
+ * <li><code>aerogear.unifiedpush.cache.maxSize</code>: maximum number of cached applications, and variants (default: 1000)
+ * <li><code>aerogear.unifiedpush.cache.ttl</code>: seconds after which an entry expires (default: 30)
+ * </ul>
+ */
+@ApplicationScoped
+public class MetadataCache {
+
+    private static final int MAX_SIZE = Integer.getInteger("aerogear.unifiedpush.cache.maxSize", 1000);
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("aerogear.unifiedpush.cache.ttl", 30));
+
+    private final ExpiringCache<String, PushApplication> pushApplications = new ExpiringCache<String, PushApplication>(MAX_SIZE, TTL_MILLIS);
+    private final ExpiringCache<String, Variant> variants = new ExpiringCache<String, Variant>(MAX_SIZE, TTL_MILLIS);
+
+    // incremented by every invalidation, so that entries loaded before it are not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    @Inject
+    private Event<MetadataInvalidation> invalidationEvent;
+
+    /**
+     * Returns the current generation of the cache. Read it <i>before</i> loading an entity, and hand it to the
+     * <code>put</code> method: the copy is not cached if the cache has been invalidated in the meantime.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns the cached copy of the PushApplication, identified by its <code>pushApplicationID</code>, or <code>null</code>.
+     */
+    public PushApplication getPushApplication(String pushApplicationID) {
+        return pushApplications.get(pushApplicationID);
+    }
+
+    /**
+     * Stores a copy (without any installations) of the given PushApplication, loaded in the given generation, and returns the copy.
+     */
+    public PushApplication putPushApplication(PushApplication pushApplication, long loadedInGeneration) {
+        final PushApplication copy = copyOf(pushApplication);
+        pushApplications.put(copy.getPushApplicationID(), copy);
+        if (generation.get() != loadedInGeneration) {
+            // invalidated while it was loaded, it may be stale:
+            pushApplications.invalidate(copy.getPushApplicationID());
+        }
+        return copy;
+    }
+
+    public void invalidatePushApplication(String pushApplicationID) {
+        invalidate(new MetadataInvalidation(pushApplicationID, Collections.<String>emptyList()));
+    }
+
+    /**
+     * Invalidates the given PushApplication, and its variants, which are removed along with it.
+     */
+    public void invalidatePushApplicationAndVariants(PushApplication pushApplication) {
+        final List<String> variantIDs = new ArrayList<String>();
+        addVariantIDs(variantIDs, pushApplication.getIOSVariants());
+        addVariantIDs(variantIDs, pushApplication.getAndroidVariants());
+        addVariantIDs(variantIDs, pushApplication.getSimplePushVariants());
+        addVariantIDs(variantIDs, pushApplication.getChromePackagedAppVariants());
+
+        invalidate(new MetadataInvalidation(pushApplication.getPushApplicationID(), variantIDs));
+    }
+
+    /**
+     * Returns the cached copy of the Variant, identified by its <code>variantID</code>, or <code>null</code>.
+     */
+    public Variant getVariant(String variantID) {
+        return variants.get(variantID);
+    }
+
+    /**
+     * Stores a copy (without any installations) of the given Variant, loaded in the given generation, and returns the copy.
+     */
+    public Variant putVariant(Variant variant, long loadedInGeneration) {
+        final Variant copy = copyOf(variant);
+        variants.put(copy.getVariantID(), copy);
+        if (generation.get() != loadedInGeneration) {
+            // invalidated while it was loaded, it may be stale:
+            variants.invalidate(copy.getVariantID());
+        }
+        return copy;
+    }
+
+    /**
+     * Invalidates the given variant. Since the variant is also part of a cached PushApplication,
+     * all PushApplications are invalidated as well.
+     */
+    public void invalidateVariant(String variantID) {
+        invalidate(new MetadataInvalidation(null, Collections.singletonList(variantID)));
+    }
+
+    /**
+     * Invalidates the entries again once the transaction that changed them has committed, since a concurrent lookup may
+     * have cached their previous state in the meantime. Without a transaction, the event is delivered right away.
+     */
+    void afterCommit(@Observes(during = TransactionPhase.AFTER_SUCCESS) MetadataInvalidation invalidation) {
+        apply(invalidation);
+    }
+
+    private void invalidate(MetadataInvalidation invalidation) {
+        apply(invalidation);
+        invalidationEvent.fire(invalidation);
+    }
+
+    private void apply(MetadataInvalidation invalidation) {
+        // first, so that a lookup in progress does not put the entries back:
+        generation.incrementAndGet();
+
+        if (invalidation.getPushApplicationID() != null) {
+            pushApplications.invalidate(invalidation.getPushApplicationID());
+        }
+        if (!invalidation.getVariantIDs().isEmpty()) {
+            for (String variantID : invalidation.getVariantIDs()) {
+                variants.invalidate(variantID);
+            }
+            pushApplications.invalidateAll();
+        }
+    }
+
+    private static void addVariantIDs(List<String> variantIDs, Iterable<? extends Variant> variants) {
+        for (Variant variant : variants) {
+            variantIDs.add(variant.getVariantID());
+        }
+    }
+
+    private static PushApplication copyOf(PushApplication pushApplication) {
+        final PushApplication copy = new PushApplication();
+        copy.setId(pushApplication.getId());
+        copy.setName(pushApplication.getName());
+        copy.setDescription(pushApplication.getDescription());
+        copy.setPushApplicationID(pushApplication.getPushApplicationID());
+        copy.setMasterSecret(pushApplication.getMasterSecret());
+        copy.setDeveloper(pushApplication.getDeveloper());
+
+        for (iOSVariant variant : pushApplication.getIOSVariants()) {
+            copy.getIOSVariants().add((iOSVariant) copyOf(variant));
+        }
+        for (AndroidVariant variant : pushApplication.getAndroidVariants()) {
+            copy.getAndroidVariants().add((AndroidVariant) copyOf(variant));
+        }
+        for (SimplePushVariant variant : pushApplication.getSimplePushVariants()) {
+            copy.getSimplePushVariants().add((SimplePushVariant) copyOf(variant));
+        }
+        for (ChromePackagedAppVariant variant : pushApplication.getChromePackagedAppVariants()) {
+            copy.getChromePackagedAppVariants().add((ChromePackagedAppVariant) copyOf(variant));
+        }
+
+        return copy;
+    }
+
+    private static Variant copyOf(Variant variant) {
+        final Variant copy;
+
+        // copy the network specific credentials:
+        switch (variant.getType()) {
+        case ANDROID:
+            final AndroidVariant androidVariant = new AndroidVariant();
+            androidVariant.setGoogleKey(((AndroidVariant) variant).getGoogleKey());
+            androidVariant.setProjectNumber(((AndroidVariant) variant).getProjectNumber());
+            copy = androidVariant;
+            break;
+        case IOS:
+            final iOSVariant iOSVariant = new iOSVariant();
+            iOSVariant.setCertificate(((iOSVariant) variant).getCertificate());
+            iOSVariant.setPassphrase(((iOSVariant) variant).getPassphrase());
+            iOSVariant.setProduction(((iOSVariant) variant).isProduction());
+            copy = iOSVariant;
+            break;
+        case CHROME_PACKAGED_APP:
+            final ChromePackagedAppVariant chromePackagedAppVariant = new ChromePackagedAppVariant();
+            chromePackagedAppVariant.setClientId(((ChromePackagedAppVariant) variant).getClientId());
+            chromePackagedAppVariant.setClientSecret(((ChromePackagedAppVariant) variant).getClientSecret());
+            chromePackagedAppVariant.setRefreshToken(((ChromePackagedAppVariant) variant).getRefreshToken());
+            copy = chromePackagedAppVariant;
+            break;
+        default:
+            copy = new SimplePushVariant();
+            break;
+        }
+
+        copy.setId(variant.getId());
+        copy.setName(variant.getName());
+        copy.setDescription(variant.getDescription());
+        copy.setVariantID(variant.getVariantID());
+        copy.setSecret(variant.getSecret());
+        copy.setDeveloper(variant.getDeveloper());
+
+        return copy;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.service.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Event fired by the {@link MetadataCache} when a PushApplication, or some variants, have been changed or removed.
+ * It is observed again once the transaction that made the change has committed.
+ */
+public class MetadataInvalidation {
+
+    private final String pushApplicationID;
+    private final Collection<String> variantIDs;
+
+    /**
+     * @param pushApplicationID ID of the changed PushApplication, or <code>null</code>
+     * @param variantIDs IDs of the changed variants, may be empty
+     */
+    public MetadataInvalidation(String pushApplicationID, Collection<String> variantIDs) {
+        this.pushApplicationID = pushApplicationID;
+        this.variantIDs = Collections.unmodifiableCollection(variantIDs);
+    }
+
+    public String getPushApplicationID() {
+        return pushApplicationID;
+    }
+
+    public Collection<String> getVariantIDs() {
+        return variantIDs;
+    }
+}
@@ -17,15 +17,28 @@
 package org.jboss.aerogear.unifiedpush.service.impl;
 
 import org.jboss.aerogear.unifiedpush.api.Installation;
+import org.jboss.aerogear.unifiedpush.api.Variant;
 import org.jboss.aerogear.unifiedpush.api.VariantType;
 import org.jboss.aerogear.unifiedpush.dao.InstallationDao;
+import org.jboss.aerogear.unifiedpush.dao.PageResult;
 import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
+import org.jboss.aerogear.unifiedpush.service.GenericVariantService;
 
+import javax.annotation.Resource;
 import javax.ejb.Asynchronous;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.logging.Logger;
 
 /**
  * (Default) implementation of the {@code ClientInstallationService} interface.
@@ -34,14 +47,77 @@ import java.util.Set;
 @Stateless
 public class ClientInstallationServiceImpl implements ClientInstallationService {
 
+    // number of installations handled (queried, written and flushed) together by a bulk registration
+    private static final int REGISTRATION_BATCH_SIZE = Integer.getInteger("aerogear.unifiedpush.registration.batchSize", 500);
+
+    // max. number of tokens in the IN-list of a bulk removal, also the size of its transaction
+    private static final int REMOVAL_BATCH_SIZE = 1000;
+
+    private final Logger logger = Logger.getLogger(ClientInstallationServiceImpl.class.getName());
+
+    @Resource
+    private SessionContext sessionContext;
+
     @Inject
     private InstallationDao dao;
 
+    @Inject
+    private GenericVariantService genericVariantService;
+
     public void addInstallation(VariantType type, Installation installation) {
         installation.setVariantType(type);
         dao.create(installation);
     }
 
+    @Override
+    public void addInstallations(Variant variant, List<Installation> installations) {
+
+        // dedupe the given installations by their token (the last one wins):
+        final Map<String, Installation> installationsByToken = new LinkedHashMap<String, Installation>();
+        for (Installation installation : installations) {
+            installationsByToken.put(installation.getDeviceToken(), installation);
+        }
+        final List<Installation> uniqueInstallations = new ArrayList<Installation>(installationsByToken.values());
+
+        for (int from = 0; from < uniqueInstallations.size(); from += REGISTRATION_BATCH_SIZE) {
+            final List<Installation> batch =
+                    uniqueInstallations.subList(from, Math.min(from + REGISTRATION_BATCH_SIZE, uniqueInstallations.size()));
+            addInstallationBatch(variant, batch);
+
+            // write the batch, and keep the persistence context small:
+            dao.flushAndClear();
+        }
+    }
+
+    private void addInstallationBatch(Variant variant, List<Installation> batch) {
+
+        final Map<String, Installation> postedByToken = new LinkedHashMap<String, Installation>();
+        for (Installation installation : batch) {
+            postedByToken.put(installation.getDeviceToken(), installation);
+        }
+
+        // one query for all the already registered installations of the batch:
+        final List<Installation> existingInstallations =
+                dao.findInstallationsForVariantByDeviceTokens(variant.getVariantID(), postedByToken.keySet());
+
+        for (Installation existing : existingInstallations) {
+            final Installation posted = postedByToken.remove(existing.getDeviceToken());
+
+            // We only update the metadata, if the device is enabled:
+            if (posted != null && existing.isEnabled()) {
+                // the installation is managed, so the changes are written by the next flush
+                copyUpdatableValues(existing, posted);
+            }
+        }
+
+        // what's left are new devices/clients:
+        final List<Installation> newInstallations = new ArrayList<Installation>(postedByToken.values());
+        genericVariantService.addInstallations(variant, newInstallations);
+        for (Installation installation : newInstallations) {
+            addInstallation(variant.getType(), installation);
+        }
+    }
+
     @Override
     public void removeInstallations(
             List<Installation> installations) {
@@ -60,7 +136,16 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
 
     @Override
     public void updateInstallation(Installation installationToUpdate, Installation postedInstallation) {
-        // copy the "updateable" values:
+        copyUpdatableValues(installationToUpdate, postedInstallation);
+
+        // update it:
+        updateInstallation(installationToUpdate);
+    }
+
+    /**
+     * Copies the "updateable" values of the posted installation
+     */
+    private static void copyUpdatableValues(Installation installationToUpdate, Installation postedInstallation) {
         installationToUpdate.setCategories(postedInstallation.getCategories());
         installationToUpdate.setDeviceToken(postedInstallation.getDeviceToken());
         installationToUpdate.setAlias(postedInstallation.getAlias());
@@ -71,9 +156,6 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
         installationToUpdate.setSimplePushEndpoint(postedInstallation.getSimplePushEndpoint());
         installationToUpdate.setEnabled(postedInstallation.isEnabled());
         installationToUpdate.setPlatform(postedInstallation.getPlatform());
-
-        // update it:
-        updateInstallation(installationToUpdate);
     }
 
     @Override
@@ -81,6 +163,12 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
         return dao.find(primaryKey);
     }
 
+    @Override
+    public PageResult<Installation> findInstallationsForVariantByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                           int page, int pageSize) {
+        return dao.findInstallationsForVariantByCriteria(variantID, categories, aliases, deviceTypes, page, pageSize);
+    }
+
     @Override
     public void removeInstallation(Installation installation) {
         dao.delete(installation);
@@ -88,11 +176,53 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
 
     @Override
     @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void removeInstallationsForVariantByDeviceTokens(String variantID, Set<String> deviceTokens) {
-        // collect inactive installations for the given variant:
-        List<Installation> inactiveInstallations = dao.findInstallationsForVariantByDeviceTokens(variantID, deviceTokens);
-        // get rid of them
-        this.removeInstallations(inactiveInstallations);
+        // each batch goes through the business object, so that it runs in a (short) transaction of its own:
+        final ClientInstallationService self = sessionContext.getBusinessObject(ClientInstallationService.class);
+
+        final List<String> tokens = new ArrayList<String>(deviceTokens);
+        int removed = 0;
+        for (int from = 0; from < tokens.size(); from += REMOVAL_BATCH_SIZE) {
+            final Set<String> batch = new HashSet<String>(tokens.subList(from, Math.min(from + REMOVAL_BATCH_SIZE, tokens.size())));
+            removed += self.removeInstallationBatchForVariantByDeviceTokens(variantID, batch);
+        }
+
+        logger.fine("Removed " + removed + " inactive installations of variant " + variantID);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int removeInstallationBatchForVariantByDeviceTokens(String variantID, Set<String> deviceTokens) {
+        return dao.deleteInstallationsForVariantByDeviceTokens(variantID, deviceTokens);
+    }
+
+    @Override
+    @Asynchronous
+    public void reconcileDeviceTokensForVariant(String variantID, Map<String, String> canonicalTokens, Set<String> unregisteredTokens) {
+        final Set<String> obsoleteTokens = new HashSet<String>(unregisteredTokens);
+        final Map<String, String> replacementTokens = new HashMap<String, String>();
+
+        if (!canonicalTokens.isEmpty()) {
+            // a canonical token that is registered already (or claimed by another replaced token) leaves a duplicate:
+            final Set<String> takenTokens = new HashSet<String>();
+            for (Installation installation : dao.findInstallationsForVariantByDeviceTokens(variantID, new HashSet<String>(canonicalTokens.values()))) {
+                takenTokens.add(installation.getDeviceToken());
+            }
+
+            for (Map.Entry<String, String> canonicalToken : canonicalTokens.entrySet()) {
+                if (unregisteredTokens.contains(canonicalToken.getValue()) || !takenTokens.add(canonicalToken.getValue())) {
+                    obsoleteTokens.add(canonicalToken.getKey());
+                } else {
+                    replacementTokens.put(canonicalToken.getKey(), canonicalToken.getValue());
+                }
+            }
+        }
+
+        final int removed = dao.deleteInstallationsForVariantByDeviceTokens(variantID, obsoleteTokens);
+        final int updated = dao.updateDeviceTokensForVariant(variantID, replacementTokens);
+
+        logger.fine("Removed " + removed + " and updated " + updated + " installations of variant " + variantID);
     }
 
     @Override
@@ -119,4 +249,22 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
     public List<String> findAllSimplePushEndpointURLsForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes) {
         return dao.findAllPushEndpointURLsForVariantIDByCriteria(variantID, categories, aliases, deviceTypes);
     }
+
+    /**
+     * Batched finder for 'send', used for Android / iOS clients
+     */
+    @Override
+    public List<String> findDeviceTokenBatchForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                   String lastDeviceToken, int batchSize) {
+        return dao.findDeviceTokenBatchForVariantIDByCriteria(variantID, categories, aliases, deviceTypes, lastDeviceToken, batchSize);
+    }
+
+    /**
+     * Batched finder for 'send', used for SimplePush clients
+     */
+    @Override
+    public List<String> findSimplePushEndpointURLBatchForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                             String lastPushEndpointURL, int batchSize) {
+        return dao.findPushEndpointURLBatchForVariantIDByCriteria(variantID, categories, aliases, deviceTypes, lastPushEndpointURL, batchSize);
+    }
 }
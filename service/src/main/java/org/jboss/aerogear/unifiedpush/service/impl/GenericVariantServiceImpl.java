@@ -22,12 +22,18 @@ import org.jboss.aerogear.unifiedpush.api.Installation;
 import org.jboss.aerogear.unifiedpush.api.Variant;
 import org.jboss.aerogear.unifiedpush.dao.VariantDao;
 import org.jboss.aerogear.unifiedpush.service.GenericVariantService;
+import org.jboss.aerogear.unifiedpush.service.cache.MetadataCache;
+
+import java.util.List;
 
 public class GenericVariantServiceImpl implements GenericVariantService {
 
     @Inject
     private VariantDao variantDao;
 
+    @Inject
+    private MetadataCache metadataCache;
+
     @Override
     public void addVariant(Variant variant) {
         variantDao.create(variant);
@@ -35,7 +41,17 @@ public class GenericVariantServiceImpl implements GenericVariantService {
 
     @Override
     public Variant findByVariantID(String variantID) {
-        return variantDao.findByVariantID(variantID);
+        final Variant cached = metadataCache.getVariant(variantID);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long generation = metadataCache.getGeneration();
+        final Variant variant = variantDao.findByVariantID(variantID);
+        if (variant == null) {
+            return null;
+        }
+        return metadataCache.putVariant(variant, generation);
     }
 
     @Override
@@ -45,18 +61,26 @@ public class GenericVariantServiceImpl implements GenericVariantService {
 
     @Override
     public void addInstallation(Variant variant, Installation installation) {
+        // the installation carries the foreign key, there is no need to load or merge the variant (or its installations):
+        installation.setVariantID(variant.getVariantID());
+    }
 
-        variant.getInstallations().add(installation);
-        variantDao.update(variant);
+    @Override
+    public void addInstallations(Variant variant, List<Installation> installations) {
+        for (Installation installation : installations) {
+            addInstallation(variant, installation);
+        }
     }
 
     @Override
     public void updateVariant(Variant variant) {
         variantDao.update(variant);
+        metadataCache.invalidateVariant(variant.getVariantID());
     }
 
     @Override
     public void removeVariant(Variant variant) {
         variantDao.delete(variant);
+        metadataCache.invalidateVariant(variant.getVariantID());
     }
 }
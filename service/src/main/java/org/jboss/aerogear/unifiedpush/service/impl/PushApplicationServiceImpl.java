@@ -27,12 +27,16 @@ import org.jboss.aerogear.unifiedpush.api.SimplePushVariant;
 import org.jboss.aerogear.unifiedpush.api.iOSVariant;
 import org.jboss.aerogear.unifiedpush.dao.PushApplicationDao;
 import org.jboss.aerogear.unifiedpush.service.PushApplicationService;
+import org.jboss.aerogear.unifiedpush.service.cache.MetadataCache;
 
 public class PushApplicationServiceImpl implements PushApplicationService {
 
     @Inject
     private PushApplicationDao pushApplicationDao;
 
+    @Inject
+    private MetadataCache metadataCache;
+
     @Override
     public void addPushApplication(PushApplication pushApp) {
         pushApplicationDao.create(pushApp);
@@ -49,19 +53,31 @@ public class PushApplicationServiceImpl implements PushApplicationService {
 
     @Override
     public PushApplication findByPushApplicationID(String pushApplicationID) {
-        return pushApplicationDao.findByPushApplicationID(pushApplicationID);
+        final PushApplication cached = metadataCache.getPushApplication(pushApplicationID);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long generation = metadataCache.getGeneration();
+        final PushApplication pushApp = pushApplicationDao.findByPushApplicationID(pushApplicationID);
+        if (pushApp == null) {
+            return null;
+        }
+        return metadataCache.putPushApplication(pushApp, generation);
     }
 
     @Override
     public void addiOSVariant(PushApplication pushApp, iOSVariant iOVariant) {
         pushApp.getIOSVariants().add(iOVariant);
         pushApplicationDao.update(pushApp);
+        metadataCache.invalidatePushApplication(pushApp.getPushApplicationID());
     }
 
     @Override
     public void addAndroidVariant(PushApplication pushApp, AndroidVariant androidVariant) {
         pushApp.getAndroidVariants().add(androidVariant);
         pushApplicationDao.update(pushApp);
+        metadataCache.invalidatePushApplication(pushApp.getPushApplicationID());
     }
 
     @Override
@@ -70,6 +86,7 @@ public class PushApplicationServiceImpl implements PushApplicationService {
         pushApp.getSimplePushVariants().add(simplePushVariant);
 
         pushApplicationDao.update(pushApp);
+        metadataCache.invalidatePushApplication(pushApp.getPushApplicationID());
     }
 
     @Override
@@ -78,15 +95,19 @@ public class PushApplicationServiceImpl implements PushApplicationService {
         pushApp.getChromePackagedAppVariants().add(chromePackagedAppVariant);
 
         pushApplicationDao.update(pushApp);
+        metadataCache.invalidatePushApplication(pushApp.getPushApplicationID());
     }
 
     @Override
     public void updatePushApplication(PushApplication pushApp) {
         pushApplicationDao.update(pushApp);
+        metadataCache.invalidatePushApplication(pushApp.getPushApplicationID());
     }
 
     @Override
     public void removePushApplication(PushApplication pushApp) {
         pushApplicationDao.delete(pushApp);
+        // the variants are removed along with the application:
+        metadataCache.invalidatePushApplicationAndVariants(pushApp);
     }
 }
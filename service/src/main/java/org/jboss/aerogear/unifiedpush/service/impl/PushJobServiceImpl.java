@@ -0,0 +1,66 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.service.impl;
+
+import org.jboss.aerogear.unifiedpush.api.PushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.VariantDeliveryResult;
+import org.jboss.aerogear.unifiedpush.dao.PushMessageInformationDao;
+import org.jboss.aerogear.unifiedpush.service.PushJobService;
+
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * (Default) implementation of the {@code PushJobService} interface.
+ * Delegates work to an injected DAO object.
+ */
+@Stateless
+public class PushJobServiceImpl implements PushJobService {
+
+    @Inject
+    private PushMessageInformationDao dao;
+
+    @Override
+    public void addRecords(List<PushMessageInformation> jobs, List<VariantDeliveryResult> results) {
+        for (PushMessageInformation job : jobs) {
+            dao.create(job);
+        }
+        for (VariantDeliveryResult result : results) {
+            dao.createVariantDeliveryResult(result);
+        }
+
+        // the records are never read back through this persistence context:
+        dao.flushAndClear();
+    }
+
+    @Override
+    public int removeRecordsOlderThan(Date date) {
+        return dao.deleteRecordsOlderThan(date);
+    }
+
+    @Override
+    public PushMessageInformation findJob(String jobID) {
+        return dao.find(jobID);
+    }
+
+    @Override
+    public List<VariantDeliveryResult> findVariantDeliveryResults(String jobID) {
+        return dao.findVariantDeliveryResultsForJob(jobID);
+    }
+}
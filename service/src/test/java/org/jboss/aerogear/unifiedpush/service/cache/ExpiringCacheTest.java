@@ -0,0 +1,72 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.service.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+    @Test
+    public void putAndGet() {
+        final ExpiringCache<String, String> cache = new ExpiringCache<String, String>(10, 60000);
+        cache.put("key", "value");
+
+        assertThat(cache.get("key")).isEqualTo("value");
+        assertThat(cache.get("other")).isNull();
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        final ExpiringCache<String, String> cache = new ExpiringCache<String, String>(2, 60000);
+        cache.put("one", "1");
+        cache.put("two", "2");
+
+        // touch 'one', so that 'two' is the least recently used entry:
+        cache.get("one");
+        cache.put("three", "3");
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("one")).isEqualTo("1");
+        assertThat(cache.get("two")).isNull();
+        assertThat(cache.get("three")).isEqualTo("3");
+    }
+
+    @Test
+    public void expiredEntriesAreNotReturned() {
+        final ExpiringCache<String, String> cache = new ExpiringCache<String, String>(10, 0);
+        cache.put("key", "value");
+
+        assertThat(cache.get("key")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    public void invalidate() {
+        final ExpiringCache<String, String> cache = new ExpiringCache<String, String>(10, 60000);
+        cache.put("one", "1");
+        cache.put("two", "2");
+
+        cache.invalidate("one");
+        assertThat(cache.get("one")).isNull();
+        assertThat(cache.get("two")).isEqualTo("2");
+
+        cache.invalidateAll();
+        assertThat(cache.size()).isZero();
+    }
+}